@@ -0,0 +1,135 @@
+package io.stardog.starwizard.services.common;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Settings for one named AsyncService thread pool, suitable for embedding in a Dropwizard configuration class.
+ */
+public class AsyncPoolConfig {
+    /**
+     * How the pool runs its tasks.
+     */
+    public enum Type {
+        /** a fixed number of platform threads in front of a bounded queue */
+        FIXED,
+        /**
+         * a virtual thread per task where the JVM supports it, or else an elastic pool of up to maxThreads platform
+         * threads; meant for blocking I/O, with concurrency limited by AsyncService resource limits
+         */
+        VIRTUAL
+    }
+
+    /**
+     * What to do with a task submitted while the pool's queue is full.
+     */
+    public enum RejectionPolicy {
+        /** throw a RejectedExecutionException to the submitter */
+        ABORT,
+        /** run the task on the submitting thread, slowing the submitter down */
+        CALLER_RUNS,
+        /** silently drop the new task */
+        DISCARD,
+        /**
+         * drop the queued task that would run last, i.e. the lowest priority one submitted latest, to make room; if
+         * the new task would run last itself, it is dropped instead
+         */
+        DISCARD_OLDEST
+    }
+
+    @NotNull
+    private String name = AsyncService.DEFAULT_POOL;
+
+    @Min(1)
+    private int threads = 4;
+
+    @Min(1)
+    private int queueCapacity = 1000;
+
+    @NotNull
+    private Type type = Type.FIXED;
+
+    @Min(1)
+    private int maxThreads = 256;
+
+    @NotNull
+    private RejectionPolicy rejectionPolicy = RejectionPolicy.ABORT;
+
+    public AsyncPoolConfig() {
+    }
+
+    public AsyncPoolConfig(String name, int threads, int queueCapacity, RejectionPolicy rejectionPolicy) {
+        this.name = name;
+        this.threads = threads;
+        this.queueCapacity = queueCapacity;
+        this.rejectionPolicy = rejectionPolicy;
+    }
+
+    @JsonProperty
+    public String getName() {
+        return name;
+    }
+
+    @JsonProperty
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @JsonProperty
+    public int getThreads() {
+        return threads;
+    }
+
+    @JsonProperty
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * @return  maximum number of tasks waiting for a thread
+     */
+    @JsonProperty
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @JsonProperty
+    public void setQueueCapacity(int queueCapacity) {
+        this.queueCapacity = queueCapacity;
+    }
+
+    @JsonProperty
+    public Type getType() {
+        return type;
+    }
+
+    @JsonProperty
+    public void setType(Type type) {
+        this.type = type;
+    }
+
+    /**
+     * @return  maximum number of platform threads for a VIRTUAL pool when virtual threads are not available
+     */
+    @JsonProperty
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+
+    @JsonProperty
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads;
+    }
+
+    @JsonProperty
+    public RejectionPolicy getRejectionPolicy() {
+        return rejectionPolicy;
+    }
+
+    @JsonProperty
+    public void setRejectionPolicy(RejectionPolicy rejectionPolicy) {
+        this.rejectionPolicy = rejectionPolicy;
+    }
+}
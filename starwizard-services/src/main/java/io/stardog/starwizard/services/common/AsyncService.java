@@ -1,24 +1,293 @@
 package io.stardog.starwizard.services.common;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.InstrumentedExecutorService;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 /**
- * A shared service for executing lightweight asynchronous processes and managing their thread pool using Dropwizard
- * lifecycle. Essentially just a wrapper around ExecutorService that implements the Dropwizard lifecycle.
+ * A shared service for executing lightweight asynchronous processes and managing their thread pools using Dropwizard
+ * lifecycle.
+ *
+ * Work can be split across named pools, so that e.g. a burst of image resizes cannot hold up unrelated tasks. Each
+ * pool has a fixed number of threads, a bounded queue and a rejection policy for when the queue is full. With a
+ * MetricRegistry, each pool publishes under "async.{name}": submitted, running and completed meters, wait time
+ * ("idle") and run time ("duration") timers, active thread and queue size gauges, and rejection and failure counters.
+ * Tasks that throw are logged and counted, since nobody tends to check the returned Future. Tasks that are discarded
+ * by the rejection policy, or still queued when the service stops, have their Futures cancelled.
+ *
+ * Every pool runs its tasks on daemon threads, as virtual threads always are, so register the service with the
+ * Dropwizard lifecycle: an app that exits without calling stop() abandons queued and running tasks rather than
+ * waiting for them.
+ *
+ * Submitting to a pool name that is not configured uses the default pool, so components can ask for their own pool
+ * without requiring every app to configure it.
+ *
+ * Pools of type VIRTUAL are meant for blocking I/O such as S3 uploads, ImageMagick processes and Stripe calls. They
+ * run each task on a virtual thread when the JVM provides them, or else on an elastic pool of platform threads. Rather
+ * than sizing the pool, limit concurrency per resource: tasks submitted with a resource name wait for one of that
+ * resource's permits before running, and resources without a configured limit are unlimited.
+ *
+ * Tasks can be given a priority and a deadline. Within a pool, waiting tasks run in priority order with aging (see
+ * PriorityDispatcher), and a task still waiting at its deadline is dropped and its Future cancelled. Wait times and
+ * drops are published per priority as "async.{pool}.{priority}.wait" and "async.{pool}.{priority}.expired". Tasks
+ * submitted without a priority are NORMAL. An ExecutorService passed to the injected constructor keeps its own queue
+ * order, so there only deadlines apply.
  */
 @Singleton
 public class AsyncService implements Managed {
-    private final ExecutorService executorService;
+    public final static String DEFAULT_POOL = "default";
+    public final static String RESOURCE_S3 = "s3";
+    public final static String RESOURCE_IMAGEMAGICK = "imagemagick";
+    public final static String RESOURCE_STRIPE = "stripe";
+
+    /**
+     * Task priority. The aging offset is how much later a task is treated as having been submitted, so a task runs
+     * ahead of higher priority tasks that were submitted more than the difference in offsets after it.
+     */
+    public enum Priority {
+        HIGH(Duration.ZERO),
+        NORMAL(Duration.ofSeconds(2)),
+        LOW(Duration.ofSeconds(30));
+
+        private final Duration agingOffset;
+
+        Priority(Duration agingOffset) {
+            this.agingOffset = agingOffset;
+        }
+
+        public Duration getAgingOffset() {
+            return agingOffset;
+        }
+    }
+
+    private final Map<String,ExecutorService> pools;
+    private final Map<String,PriorityDispatcher> dispatchers;
+    private final Map<String,Semaphore> resources;
+    private final Map<String,Counter> failures;
+    private final String defaultPool;
+    private final Duration drainTimeout;
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(AsyncService.class);
 
     @Inject
     public AsyncService(ExecutorService executorService) {
-        this.executorService = executorService;
+        this.pools = ImmutableMap.of(DEFAULT_POOL, executorService);
+        this.failures = ImmutableMap.of(DEFAULT_POOL, new Counter());
+        this.resources = ImmutableMap.of();
+        this.dispatchers = ImmutableMap.of(DEFAULT_POOL, new PriorityDispatcher(DEFAULT_POOL, executorService, null));
+        this.defaultPool = DEFAULT_POOL;
+        this.drainTimeout = Duration.ofSeconds(60);
+    }
+
+    public AsyncService(AsyncPoolConfig config, @Nullable MetricRegistry metrics) {
+        this(ImmutableList.of(config), Duration.ofSeconds(60), metrics);
+    }
+
+    /**
+     * @param configs   pools to create; the default pool is the one named "default", or else the first
+     * @param drainTimeout  how long stop() waits for queued and running tasks to finish
+     * @param metrics   registry for pool metrics, or null for none
+     */
+    public AsyncService(List<AsyncPoolConfig> configs, Duration drainTimeout, @Nullable MetricRegistry metrics) {
+        this(configs, ImmutableMap.of(), drainTimeout, metrics);
+    }
+
+    /**
+     * @param configs   pools to create; the default pool is the one named "default", or else the first
+     * @param resourceLimits    maximum concurrent tasks per resource name, e.g. "s3" to 50
+     * @param drainTimeout  how long stop() waits for queued and running tasks to finish
+     * @param metrics   registry for pool metrics, or null for none
+     */
+    public AsyncService(List<AsyncPoolConfig> configs, Map<String,Integer> resourceLimits, Duration drainTimeout,
+                        @Nullable MetricRegistry metrics) {
+        if (configs.isEmpty()) {
+            throw new IllegalArgumentException("At least one pool must be configured");
+        }
+        Map<String,ExecutorService> pools = new LinkedHashMap<>();
+        Map<String,Counter> failures = new LinkedHashMap<>();
+        Map<String,PriorityDispatcher> dispatchers = new LinkedHashMap<>();
+        for (AsyncPoolConfig config : configs) {
+            String name = config.getName();
+            if (pools.containsKey(name)) {
+                throw new IllegalArgumentException("Duplicate pool name: " + name);
+            }
+            failures.put(name, metrics != null ? metrics.counter(metricName(name, "failures")) : new Counter());
+            ExecutorService pool = buildPool(config, metrics);
+            pools.put(name, pool);
+            dispatchers.put(name, new PriorityDispatcher(name, pool, metrics));
+        }
+        this.pools = ImmutableMap.copyOf(pools);
+        this.failures = ImmutableMap.copyOf(failures);
+        this.dispatchers = ImmutableMap.copyOf(dispatchers);
+        ImmutableMap.Builder<String,Semaphore> resources = ImmutableMap.builder();
+        for (Map.Entry<String,Integer> e : resourceLimits.entrySet()) {
+            Semaphore semaphore = new Semaphore(e.getValue(), true);
+            resources.put(e.getKey(), semaphore);
+            if (metrics != null) {
+                metrics.gauge(MetricRegistry.name("async", "resource", e.getKey(), "available"),
+                        () -> (Gauge<Integer>)semaphore::availablePermits);
+            }
+        }
+        this.resources = resources.build();
+        this.defaultPool = pools.containsKey(DEFAULT_POOL) ? DEFAULT_POOL : configs.get(0).getName();
+        this.drainTimeout = drainTimeout;
+    }
+
+    private static ExecutorService buildPool(AsyncPoolConfig config, @Nullable MetricRegistry metrics) {
+        if (config.getType() == AsyncPoolConfig.Type.VIRTUAL) {
+            ExecutorService virtual = newVirtualThreadExecutor();
+            if (virtual != null) {
+                return metrics != null
+                        ? new InstrumentedExecutorService(virtual, metrics, MetricRegistry.name("async", config.getName()))
+                        : virtual;
+            }
+            LOGGER.info("Virtual threads are not available, using an elastic thread pool for " + config.getName());
+        }
+        return buildThreadPool(config, metrics);
+    }
+
+    /**
+     * Build a pool of platform threads: a fixed pool for FIXED, or the elastic fallback for VIRTUAL.
+     * @param config    pool config
+     * @param metrics   registry for pool metrics, or null for none
+     * @return  pool
+     */
+    static ThreadPoolExecutor buildThreadPool(AsyncPoolConfig config, @Nullable MetricRegistry metrics) {
+        String name = config.getName();
+        Counter rejections = metrics != null ? metrics.counter(metricName(name, "rejected")) : new Counter();
+        RejectedExecutionHandler handler = toHandler(name, config.getRejectionPolicy(), rejections);
+        // daemon threads, like virtual threads, so that pools never keep the JVM alive; stop() drains them instead
+        ThreadFactory threadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("async-" + name + "-%d")
+                .setDaemon(true)
+                .build();
+        ThreadPoolExecutor pool;
+        if (config.getType() == AsyncPoolConfig.Type.VIRTUAL) {
+            pool = new PriorityThreadPoolExecutor(name, 0, config.getMaxThreads(), 60, new SynchronousQueue<>(),
+                    threadFactory, handler, metrics);
+        } else {
+            pool = new PriorityThreadPoolExecutor(name, config.getThreads(), config.getThreads(), 0,
+                    PriorityThreadPoolExecutor.newQueue(config.getQueueCapacity()), threadFactory, handler, metrics);
+        }
+        if (metrics != null) {
+            metrics.gauge(metricName(name, "active"), () -> (Gauge<Integer>)pool::getActiveCount);
+            metrics.gauge(metricName(name, "queued"), () -> (Gauge<Integer>)() -> pool.getQueue().size());
+        }
+        return pool;
+    }
+
+    /**
+     * Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively so that this still runs on Java 8.
+     * @return  a virtual thread per task executor, or null if the JVM does not support virtual threads
+     */
+    @Nullable
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService)method.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Rejected tasks are cancelled when they are dropped, so that nobody waits on their Futures forever. A task
+     * rejected because the pool is shut down is always dropped.
+     */
+    private static RejectedExecutionHandler toHandler(String name, AsyncPoolConfig.RejectionPolicy policy,
+                                                      Counter rejections) {
+        return (r, executor) -> {
+            rejections.inc();
+            if (policy == AsyncPoolConfig.RejectionPolicy.ABORT) {
+                throw new RejectedExecutionException("Task rejected from pool " + name);
+            }
+            if (executor.isShutdown()) {
+                cancel(r);
+                return;
+            }
+            switch (policy) {
+                case CALLER_RUNS:
+                    r.run();
+                    break;
+                case DISCARD_OLDEST:
+                    discardLeastUrgent(r, executor);
+                    break;
+                default:
+                    cancel(r);
+            }
+        };
+    }
+
+    /**
+     * Make room for a task by dropping the waiting task that would run last, i.e. the one with the lowest priority
+     * that was submitted latest. If that is the new task itself, it is the one dropped. The new task goes straight
+     * onto the queue rather than back through execute(), so it is only counted as submitted once.
+     */
+    private static void discardLeastUrgent(Runnable r, ThreadPoolExecutor executor) {
+        // pools built here wrap everything they queue as a Task
+        PriorityDispatcher.Task task = (PriorityDispatcher.Task)r;
+        BlockingQueue<Runnable> queue = executor.getQueue();
+        while (true) {
+            PriorityDispatcher.Task last = task;
+            for (Runnable waiting : queue) {
+                if (((PriorityDispatcher.Task)waiting).compareTo(last) > 0) {
+                    last = (PriorityDispatcher.Task)waiting;
+                }
+            }
+            if (last == task) {
+                cancel(task);
+                return;
+            }
+            if (queue.remove(last)) {
+                cancel(last);
+            }
+            // another submitter may have taken the space, in which case look again
+            if (queue.offer(task)) {
+                return;
+            }
+            if (executor.isShutdown()) {
+                cancel(task);
+                return;
+            }
+        }
+    }
+
+    private static void cancel(@Nullable Runnable r) {
+        if (r instanceof Future) {
+            ((Future<?>)r).cancel(false);
+        }
+    }
+
+    private static String metricName(String pool, String name) {
+        return MetricRegistry.name("async", pool, name);
     }
 
     @Override
@@ -28,16 +297,143 @@ public class AsyncService implements Managed {
 
     @Override
     public void stop() throws Exception {
-        executorService.shutdown();
-        executorService.awaitTermination(60, TimeUnit.SECONDS);
-        executorService.shutdownNow();
+        for (ExecutorService pool : pools.values()) {
+            pool.shutdown();
+        }
+        long deadline = System.nanoTime() + drainTimeout.toNanos();
+        for (ExecutorService pool : pools.values()) {
+            pool.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        }
+        for (Map.Entry<String,ExecutorService> e : pools.entrySet()) {
+            List<Runnable> queued = e.getValue().shutdownNow();
+            for (Runnable r : queued) {
+                cancel(r);
+            }
+            if (!queued.isEmpty()) {
+                LOGGER.warn("Cancelled " + queued.size() + " queued tasks from pool " + e.getKey() + " on shutdown");
+            }
+        }
     }
 
     public ExecutorService getExecutorService() {
-        return executorService;
+        return pools.get(defaultPool);
+    }
+
+    /**
+     * @param pool  pool name
+     * @return  the named pool, or the default pool if there is no pool by that name
+     */
+    public ExecutorService getExecutorService(String pool) {
+        return pools.getOrDefault(pool, pools.get(defaultPool));
     }
 
     public Future<?> submit(Runnable runnable) {
-        return executorService.submit(runnable);
+        return submit(defaultPool, runnable);
+    }
+
+    /**
+     * Run a task on a named pool, or on the default pool if there is no pool by that name.
+     * @param pool  pool name
+     * @param runnable  task
+     * @return  future for the task
+     */
+    public Future<?> submit(String pool, Runnable runnable) {
+        return submit(pool, Priority.NORMAL, null, runnable);
+    }
+
+    public Future<?> submit(Priority priority, Runnable runnable) {
+        return submit(defaultPool, priority, null, runnable);
+    }
+
+    /**
+     * Run a task on a named pool, ahead of waiting tasks of lower priority.
+     * @param pool  pool name; the default pool is used if there is no pool by that name
+     * @param priority  task priority
+     * @param deadline  time after which the task is dropped if it has not started, or null for none
+     * @param runnable  task
+     * @return  future for the task, which is cancelled if the task is dropped
+     */
+    public Future<?> submit(String pool, Priority priority, @Nullable Instant deadline, Runnable runnable) {
+        return submit(pool, priority, deadline, runnable, null);
+    }
+
+    /**
+     * Run a task as above, calling back once it has finished or been dropped.
+     * @param onDone    called once the task has run, or as soon as it is cancelled by its deadline, the rejection
+     *                  policy or stop(), or null for none; not called if submit throws
+     * @return  future for the task, which is cancelled if the task is dropped
+     */
+    Future<?> submit(String pool, Priority priority, @Nullable Instant deadline, Runnable runnable,
+                     @Nullable Runnable onDone) {
+        String name = pools.containsKey(pool) ? pool : defaultPool;
+        return dispatchers.get(name).submit(priority, deadline, logFailures(name, runnable), onDone);
+    }
+
+    /**
+     * Run a task on a named pool once a permit for the resource is available. Permits are taken on the pool's thread,
+     * so this is best used with VIRTUAL pools, where a waiting task does not tie up a platform thread.
+     * @param pool  pool name
+     * @param resource  resource name, e.g. RESOURCE_S3
+     * @param runnable  task
+     * @return  future for the task
+     */
+    public Future<?> submit(String pool, String resource, Runnable runnable) {
+        return submit(pool, () -> runWithPermit(resource, runnable));
+    }
+
+    /**
+     * Run a task on the calling thread once a permit for the resource is available.
+     * @param resource  resource name, e.g. RESOURCE_S3
+     * @param runnable  task
+     */
+    public void runWithPermit(String resource, Runnable runnable) {
+        Semaphore semaphore = resources.get(resource);
+        if (semaphore == null) {
+            runnable.run();
+            return;
+        }
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for resource: " + resource, e);
+        }
+        try {
+            runnable.run();
+        } finally {
+            semaphore.release();
+        }
+    }
+
+    /**
+     * @param pool  pool name
+     * @param priority  task priority
+     * @return  number of tasks of the priority that were dropped at their deadline
+     */
+    public long getExpiredCount(String pool, Priority priority) {
+        PriorityDispatcher dispatcher = dispatchers.get(pool);
+        return dispatcher != null ? dispatcher.getExpiredCount(priority) : 0;
+    }
+
+    /**
+     * @param pool  pool name
+     * @return  number of tasks on the pool that have thrown
+     */
+    public long getFailureCount(String pool) {
+        Counter counter = failures.get(pool);
+        return counter != null ? counter.getCount() : 0;
+    }
+
+    private Runnable logFailures(String pool, Runnable runnable) {
+        Counter counter = failures.get(pool);
+        return () -> {
+            try {
+                runnable.run();
+            } catch (RuntimeException | Error e) {
+                counter.inc();
+                LOGGER.error("Uncaught failure in async task on pool " + pool, e);
+                throw e;
+            }
+        };
     }
 }
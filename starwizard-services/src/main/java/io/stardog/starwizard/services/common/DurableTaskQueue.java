@@ -0,0 +1,281 @@
+package io.stardog.starwizard.services.common;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * A task queue that records each task in a TaskJournal before running it on an AsyncService pool, so that work
+ * which is queued or running when the app stops is run again on the next start.
+ *
+ * Delivery is at least once: a task is acked only after its handler returns, so a handler may see the same task
+ * again after a crash and should be safe to repeat. A handler that throws is retried with exponential backoff, and
+ * after maxAttempts the task is written to the dead-letter file as a line of JSON and acked. Retries wait on a
+ * scheduler rather than on the pool, so a failing task does not hold a pool thread through its backoff.
+ *
+ * Register handlers for each task type before start(). Register this with the Dropwizard lifecycle after the
+ * AsyncService it uses, so that it stops first: stop() stops starting new tasks, waits for running ones to finish,
+ * and leaves the rest, including tasks waiting to be retried, in the journal.
+ */
+public class DurableTaskQueue implements Managed {
+    public final static int DEFAULT_MAX_ATTEMPTS = 5;
+    public final static Duration DEFAULT_RETRY_DELAY = Duration.ofSeconds(1);
+    public final static Duration DEFAULT_DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final AsyncService asyncService;
+    private final String pool;
+    private final TaskJournal journal;
+    private final File deadLetterFile;
+    private final int maxAttempts;
+    private final Duration retryDelay;
+    private final Duration drainTimeout;
+    private final Map<String,Consumer<byte[]>> handlers = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Counter completed;
+    private final Counter retries;
+    private final Counter deadLettered;
+    private ScheduledExecutorService retryScheduler;
+    private volatile boolean isStarted = false;
+    private volatile boolean isStopped = false;
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(DurableTaskQueue.class);
+
+    public DurableTaskQueue(AsyncService asyncService, String pool, File journalFile,
+                            @Nullable MetricRegistry metrics) {
+        this(asyncService, pool, new TaskJournal(journalFile), new File(journalFile.getPath() + ".dead"),
+                DEFAULT_MAX_ATTEMPTS, DEFAULT_RETRY_DELAY, DEFAULT_DRAIN_TIMEOUT, metrics);
+    }
+
+    /**
+     * @param asyncService  service to run tasks on
+     * @param pool  AsyncService pool name
+     * @param journal   journal to record tasks in; closed by stop()
+     * @param deadLetterFile    file that tasks which fail every attempt are appended to
+     * @param maxAttempts   number of times to run a task before giving up on it
+     * @param retryDelay    delay before the first retry, doubling for each one after
+     * @param drainTimeout  how long stop() waits for running tasks to finish
+     * @param metrics   registry for queue metrics, or null for none
+     */
+    public DurableTaskQueue(AsyncService asyncService, String pool, TaskJournal journal, File deadLetterFile,
+                            int maxAttempts, Duration retryDelay, Duration drainTimeout,
+                            @Nullable MetricRegistry metrics) {
+        this.asyncService = asyncService;
+        this.pool = pool;
+        this.journal = journal;
+        this.deadLetterFile = deadLetterFile;
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = retryDelay;
+        this.drainTimeout = drainTimeout;
+        if (metrics != null) {
+            this.completed = metrics.counter(MetricRegistry.name(DurableTaskQueue.class, "completed"));
+            this.retries = metrics.counter(MetricRegistry.name(DurableTaskQueue.class, "retries"));
+            this.deadLettered = metrics.counter(MetricRegistry.name(DurableTaskQueue.class, "deadLettered"));
+            metrics.gauge(MetricRegistry.name(DurableTaskQueue.class, "pending"),
+                    () -> (Gauge<Integer>)journal::getPendingCount);
+        } else {
+            this.completed = new Counter();
+            this.retries = new Counter();
+            this.deadLettered = new Counter();
+        }
+    }
+
+    /**
+     * Register the handler for a task type. Handlers should be registered before start(), so that tasks replayed
+     * from the journal can be run.
+     * @param type  task type
+     * @param handler   handler, which throws to have the task retried
+     */
+    public void register(String type, Consumer<byte[]> handler) {
+        handlers.put(type, handler);
+    }
+
+    /**
+     * Record a task in the journal and queue it to run. A task submitted before start() runs once started.
+     * @param type  task type, which must have a registered handler
+     * @param payload   task data
+     * @return  task id
+     */
+    public long submit(String type, byte[] payload) {
+        if (!handlers.containsKey(type)) {
+            throw new IllegalArgumentException("No handler registered for task type: " + type);
+        }
+        synchronized (this) {
+            TaskJournal.Entry entry = journal.append(type, payload);
+            if (isStarted && !isStopped) {
+                dispatch(entry, 1);
+            }
+            return entry.getId();
+        }
+    }
+
+    @Override
+    public synchronized void start() throws Exception {
+        if (isStarted) {
+            return;
+        }
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("task-retry-%d")
+                .setDaemon(true)
+                .build());
+        journal.compact();
+        List<TaskJournal.Entry> pending = journal.getPending();
+        if (!pending.isEmpty()) {
+            LOGGER.info("Replaying " + pending.size() + " unfinished tasks");
+        }
+        for (TaskJournal.Entry entry : pending) {
+            dispatch(entry, 1);
+        }
+        isStarted = true;
+    }
+
+    @Override
+    public void stop() throws Exception {
+        isStopped = true;
+        synchronized (this) {
+            if (retryScheduler != null) {
+                retryScheduler.shutdownNow();
+            }
+        }
+        long deadline = System.nanoTime() + drainTimeout.toNanos();
+        while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+        synchronized (this) {
+            int pending = journal.getPendingCount();
+            if (pending > 0) {
+                LOGGER.info("Leaving " + pending + " unfinished tasks in the journal for the next start");
+            }
+            journal.close();
+        }
+    }
+
+    public long getCompletedCount() {
+        return completed.getCount();
+    }
+
+    public long getRetryCount() {
+        return retries.getCount();
+    }
+
+    public long getDeadLetterCount() {
+        return deadLettered.getCount();
+    }
+
+    private void dispatch(TaskJournal.Entry entry, int attempt) {
+        inFlight.incrementAndGet();
+        try {
+            // counted down when the task finishes, and also if the pool discards it or cancels it on stop, since
+            // then it never runs
+            asyncService.submit(pool, AsyncService.Priority.NORMAL, null, () -> run(entry, attempt),
+                    inFlight::decrementAndGet);
+        } catch (RejectedExecutionException e) {
+            inFlight.decrementAndGet();
+            LOGGER.warn("Task " + entry.getId() + " was rejected by pool " + pool + ", it will run on the next start");
+        }
+    }
+
+    private void run(TaskJournal.Entry entry, int attempt) {
+        if (isStopped) {
+            return;
+        }
+        Consumer<byte[]> handler = handlers.get(entry.getType());
+        if (handler == null) {
+            deadLetter(entry, "No handler registered for task type: " + entry.getType());
+            return;
+        }
+        try {
+            handler.accept(entry.getPayload());
+        } catch (Exception e) {
+            if (attempt >= maxAttempts) {
+                LOGGER.error("Task " + entry.getId() + " of type " + entry.getType() + " failed "
+                        + attempt + " times, moving it to " + deadLetterFile, e);
+                deadLetter(entry, e.toString());
+                return;
+            }
+            retries.inc();
+            LOGGER.warn("Task " + entry.getId() + " of type " + entry.getType() + " failed, retrying", e);
+            scheduleRetry(entry, attempt + 1);
+            return;
+        }
+        completed.inc();
+        ack(entry);
+    }
+
+    /**
+     * Dispatch the task again once its backoff has passed. If the queue stops first, the task stays in the journal.
+     */
+    private synchronized void scheduleRetry(TaskJournal.Entry entry, int attempt) {
+        if (isStopped) {
+            return;
+        }
+        long delayMs = retryDelay.toMillis() << Math.min(attempt - 2, 20);
+        try {
+            retryScheduler.schedule(() -> {
+                if (!isStopped) {
+                    dispatch(entry, attempt);
+                }
+            }, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            LOGGER.info("Task " + entry.getId() + " will be retried on the next start");
+        }
+    }
+
+    private void deadLetter(TaskJournal.Entry entry, String error) {
+        try {
+            Map<String,Object> record = ImmutableMap.of(
+                    "id", entry.getId(),
+                    "type", entry.getType(),
+                    "payload", entry.getPayload(),
+                    "error", error,
+                    "time", Instant.now().toString());
+            String line = objectMapper.writeValueAsString(record) + "\n";
+            synchronized (deadLetterFile) {
+                Files.write(deadLetterFile.toPath(), line.getBytes(StandardCharsets.UTF_8),
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        } catch (IOException e) {
+            // leave the task in the journal rather than lose it
+            LOGGER.error("Unable to write task " + entry.getId() + " to " + deadLetterFile, e);
+            return;
+        }
+        deadLettered.inc();
+        ack(entry);
+    }
+
+    private synchronized void ack(TaskJournal.Entry entry) {
+        try {
+            journal.ack(entry.getId());
+        } catch (IllegalStateException e) {
+            LOGGER.warn("Task " + entry.getId() + " finished after the journal was closed, it will run again");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package io.stardog.starwizard.services.common;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Submits prioritized tasks to one AsyncService pool. Each submission is a Task, a FutureTask that orders itself by
+ * priority, and the Task itself is handed to the pool. Pools built by AsyncService queue waiting tasks in a
+ * PriorityThreadPoolExecutor, so they run in priority order, and the pool's capacity, rejection policy and metrics
+ * all apply to the submitted task. An ExecutorService with a first in, first out queue still gets deadlines, but not
+ * the ordering.
+ *
+ * A task's rank is fixed when it is submitted: the submit time plus its priority's aging offset. A LOW task therefore
+ * runs ahead of HIGH tasks submitted more than LOW's offset after it, so a steady stream of HIGH work cannot starve
+ * it. Tasks whose deadline has passed by the time they reach the front are cancelled instead of run.
+ */
+class PriorityDispatcher {
+    private final static AtomicLong SEQUENCE = new AtomicLong();
+
+    private final ExecutorService executor;
+    private final Map<AsyncService.Priority,Timer> waits = new EnumMap<>(AsyncService.Priority.class);
+    private final Map<AsyncService.Priority,Counter> expired = new EnumMap<>(AsyncService.Priority.class);
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(PriorityDispatcher.class);
+
+    PriorityDispatcher(String pool, ExecutorService executor, @Nullable MetricRegistry metrics) {
+        this.executor = executor;
+        for (AsyncService.Priority priority : AsyncService.Priority.values()) {
+            String name = priority.name().toLowerCase(Locale.ROOT);
+            if (metrics != null) {
+                waits.put(priority, metrics.timer(MetricRegistry.name("async", pool, name, "wait")));
+                expired.put(priority, metrics.counter(MetricRegistry.name("async", pool, name, "expired")));
+            } else {
+                waits.put(priority, new Timer());
+                expired.put(priority, new Counter());
+            }
+        }
+    }
+
+    /**
+     * @return  future for the task, which is cancelled if the task expires or the pool discards it
+     * @throws java.util.concurrent.RejectedExecutionException  if the pool rejects the task
+     */
+    Future<?> submit(AsyncService.Priority priority, @Nullable Instant deadline, Runnable runnable) {
+        return submit(priority, deadline, runnable, null);
+    }
+
+    /**
+     * @param onDone    called once the task has run, or as soon as it is cancelled, or null for none
+     * @return  future for the task, which is cancelled if the task expires or the pool discards it
+     * @throws java.util.concurrent.RejectedExecutionException  if the pool rejects the task, in which case onDone is
+     * not called
+     */
+    Future<?> submit(AsyncService.Priority priority, @Nullable Instant deadline, Runnable runnable,
+                     @Nullable Runnable onDone) {
+        Task task = new Task(runnable, priority, deadline, this, onDone);
+        executor.execute(task);
+        return task;
+    }
+
+    long getExpiredCount(AsyncService.Priority priority) {
+        return expired.get(priority).getCount();
+    }
+
+    /**
+     * @return  whether the task should run, or false if it missed its deadline and has been cancelled
+     */
+    private boolean beforeRun(Task task) {
+        waits.get(task.priority).update(System.nanoTime() - task.submittedNanos, TimeUnit.NANOSECONDS);
+        if (task.deadline != null && Instant.now().isAfter(task.deadline)) {
+            expired.get(task.priority).inc();
+            task.cancel(false);
+            LOGGER.debug("Dropped " + task.priority + " task that missed its deadline of " + task.deadline);
+            return false;
+        }
+        return true;
+    }
+
+    static class Task extends FutureTask<Object> implements Comparable<Task> {
+        private final AsyncService.Priority priority;
+        private final Instant deadline;
+        private final PriorityDispatcher dispatcher;
+        private final Runnable onDone;
+        private final long submittedNanos;
+        private final long rank;
+        private final long sequence;
+
+        /**
+         * @param dispatcher    dispatcher to record the wait with and check the deadline against, or null for none
+         * @param onDone    called once the task completes or is cancelled, or null for none
+         */
+        Task(Runnable runnable, AsyncService.Priority priority, @Nullable Instant deadline,
+             @Nullable PriorityDispatcher dispatcher, @Nullable Runnable onDone) {
+            super(runnable, null);
+            this.priority = priority;
+            this.deadline = deadline;
+            this.dispatcher = dispatcher;
+            this.onDone = onDone;
+            this.submittedNanos = System.nanoTime();
+            this.rank = submittedNanos + priority.getAgingOffset().toNanos();
+            this.sequence = SEQUENCE.getAndIncrement();
+        }
+
+        long getSubmittedNanos() {
+            return submittedNanos;
+        }
+
+        @Override
+        public void run() {
+            if (dispatcher != null && !dispatcher.beforeRun(this)) {
+                return;
+            }
+            super.run();
+        }
+
+        @Override
+        protected void done() {
+            if (onDone != null) {
+                onDone.run();
+            }
+        }
+
+        @Override
+        public int compareTo(Task o) {
+            // nanoTime values may wrap, so compare by difference
+            long diff = rank - o.rank;
+            if (diff != 0) {
+                return diff < 0 ? -1 : 1;
+            }
+            return Long.compare(sequence, o.sequence);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package io.stardog.starwizard.services.common;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A ThreadPoolExecutor that runs PriorityDispatcher tasks. Runnables that did not come through a PriorityDispatcher
+ * are wrapped as NORMAL tasks, so that everything on the queue can be ordered, and a queue from newQueue() runs
+ * waiting tasks in priority order.
+ *
+ * With a MetricRegistry, it publishes the same metrics under "async.{name}" as InstrumentedExecutorService, which
+ * can't be used here because it wraps tasks in runnables that can't be ordered.
+ */
+class PriorityThreadPoolExecutor extends ThreadPoolExecutor {
+    private final Meter submitted;
+    private final Counter running;
+    private final Meter completed;
+    private final Timer idle;
+    private final Timer duration;
+    private final ThreadLocal<Long> startNanos = new ThreadLocal<>();
+
+    PriorityThreadPoolExecutor(String name, int threads, int maxThreads, long keepAliveSeconds,
+                               BlockingQueue<Runnable> queue, ThreadFactory threadFactory,
+                               RejectedExecutionHandler handler, @Nullable MetricRegistry metrics) {
+        super(threads, maxThreads, keepAliveSeconds, TimeUnit.SECONDS, queue, threadFactory, handler);
+        if (metrics != null) {
+            this.submitted = metrics.meter(MetricRegistry.name("async", name, "submitted"));
+            this.running = metrics.counter(MetricRegistry.name("async", name, "running"));
+            this.completed = metrics.meter(MetricRegistry.name("async", name, "completed"));
+            this.idle = metrics.timer(MetricRegistry.name("async", name, "idle"));
+            this.duration = metrics.timer(MetricRegistry.name("async", name, "duration"));
+        } else {
+            this.submitted = new Meter();
+            this.running = new Counter();
+            this.completed = new Meter();
+            this.idle = new Timer();
+            this.duration = new Timer();
+        }
+    }
+
+    /**
+     * @param capacity  maximum number of waiting tasks; offers beyond it fail, so the pool's rejection policy applies
+     * @return  queue that hands out waiting tasks in priority order
+     */
+    static BlockingQueue<Runnable> newQueue(int capacity) {
+        return new PriorityBlockingQueue<Runnable>() {
+            @Override
+            public boolean offer(Runnable r) {
+                // only offers add to the queue, so checking under this lock is enough to stay within capacity
+                synchronized (this) {
+                    return size() < capacity && super.offer(r);
+                }
+            }
+
+            @Override
+            public int remainingCapacity() {
+                return Math.max(0, capacity - size());
+            }
+        };
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        submitted.mark();
+        super.execute(command instanceof PriorityDispatcher.Task
+                ? command
+                : new PriorityDispatcher.Task(command, AsyncService.Priority.NORMAL, null, null, null));
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        long now = System.nanoTime();
+        idle.update(now - ((PriorityDispatcher.Task)r).getSubmittedNanos(), TimeUnit.NANOSECONDS);
+        running.inc();
+        startNanos.set(now);
+    }
+
+    @Override
+    protected void afterExecute(Runnable r, Throwable t) {
+        running.dec();
+        completed.mark();
+        duration.update(System.nanoTime() - startNanos.get(), TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,303 @@
+package io.stardog.starwizard.services.common;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only journal of tasks and their acknowledgements, kept in a memory-mapped file so that queued work
+ * survives a restart. Each record is written as:
+ *
+ *   int length | int crc32 | byte kind | long id | (tasks only) short type length, type, payload
+ *
+ * The length is written last, so a record that was torn by a crash reads as the end of the journal. On open, the
+ * journal is read up to the first empty or corrupt record, and every task without an ack is pending again. When the
+ * file fills up, the pending tasks are rewritten to a fresh file, which is grown if it is still too small.
+ *
+ * Writes land in the page cache, which survives the process dying. Pass isSync to also force each record to disk,
+ * to survive the machine going down, at the cost of a disk flush per write.
+ */
+public class TaskJournal implements Closeable {
+    public final static int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+    private final static byte TASK = 1;
+    private final static byte ACK = 2;
+    private final static int HEADER_SIZE = 8;
+    private final static int ACK_SIZE = HEADER_SIZE + 1 + 8;
+
+    private final File file;
+    private final boolean isSync;
+    private final Map<Long,Entry> pending = new LinkedHashMap<>();
+    private int capacity;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private long nextId = 1;
+    private boolean isClosed = false;
+
+    private final static Logger LOGGER = LoggerFactory.getLogger(TaskJournal.class);
+
+    public TaskJournal(File file) {
+        this(file, DEFAULT_CAPACITY, false);
+    }
+
+    /**
+     * @param file  journal file, created if it does not exist
+     * @param capacity  initial size of the mapped file in bytes
+     * @param isSync    whether to force every record to disk as it is written
+     */
+    public TaskJournal(File file, int capacity, boolean isSync) {
+        this.file = file;
+        this.isSync = isSync;
+        try {
+            this.channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.capacity = (int)Math.min(Integer.MAX_VALUE, Math.max(capacity, channel.size()));
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, this.capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        read();
+    }
+
+    /**
+     * A task that has been appended to the journal.
+     */
+    public static class Entry {
+        private final long id;
+        private final String type;
+        private final byte[] payload;
+
+        Entry(long id, String type, byte[] payload) {
+            this.id = id;
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    /**
+     * Append a task to the journal.
+     * @param type  task type
+     * @param payload   task data
+     * @return  the appended task
+     */
+    public synchronized Entry append(String type, byte[] payload) {
+        checkOpen();
+        Entry entry = new Entry(nextId++, type, payload);
+        write(encodeTask(entry));
+        pending.put(entry.getId(), entry);
+        return entry;
+    }
+
+    /**
+     * Mark a task as finished, so that it is not returned as pending again.
+     * @param id    task id
+     */
+    public synchronized void ack(long id) {
+        checkOpen();
+        if (pending.remove(id) == null) {
+            return;
+        }
+        ByteBuffer body = ByteBuffer.allocate(ACK_SIZE - HEADER_SIZE);
+        body.put(ACK);
+        body.putLong(id);
+        write(body.array());
+    }
+
+    /**
+     * @return  tasks that have been appended but not acked, oldest first
+     */
+    public synchronized List<Entry> getPending() {
+        return new ArrayList<>(pending.values());
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Rewrite the journal to hold only the pending tasks.
+     */
+    public synchronized void compact() {
+        checkOpen();
+        compact(0);
+    }
+
+    @Override
+    public synchronized void close() {
+        if (isClosed) {
+            return;
+        }
+        isClosed = true;
+        buffer.force();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void checkOpen() {
+        if (isClosed) {
+            throw new IllegalStateException("Task journal is closed: " + file);
+        }
+    }
+
+    private void read() {
+        buffer.position(0);
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length == 0) {
+                buffer.position(start);
+                return;
+            }
+            if (length < 0 || length > buffer.remaining() - 4) {
+                truncate(start);
+                return;
+            }
+            int crc = buffer.getInt();
+            byte[] body = new byte[length];
+            buffer.get(body);
+            if (crc(body) != crc) {
+                truncate(start);
+                return;
+            }
+            apply(ByteBuffer.wrap(body));
+        }
+    }
+
+    /**
+     * Discard everything from a torn or corrupt record onwards. The tail is zeroed, so that records after the
+     * corrupt one cannot be read back once new records are written over it.
+     */
+    private void truncate(int position) {
+        LOGGER.warn("Discarding corrupt task journal records in " + file + " from offset " + position);
+        buffer.position(position);
+        while (buffer.hasRemaining()) {
+            buffer.put((byte)0);
+        }
+        buffer.position(position);
+    }
+
+    private void apply(ByteBuffer body) {
+        byte kind = body.get();
+        long id = body.getLong();
+        nextId = Math.max(nextId, id + 1);
+        if (kind == TASK) {
+            byte[] type = new byte[body.getShort() & 0xffff];
+            body.get(type);
+            byte[] payload = new byte[body.remaining()];
+            body.get(payload);
+            pending.put(id, new Entry(id, new String(type, StandardCharsets.UTF_8), payload));
+        } else if (kind == ACK) {
+            pending.remove(id);
+        }
+    }
+
+    private void write(byte[] body) {
+        if (buffer.remaining() < HEADER_SIZE + body.length) {
+            compact(HEADER_SIZE + body.length);
+        }
+        putRecord(buffer, body);
+        if (isSync) {
+            buffer.force();
+        }
+    }
+
+    private void compact(int extra) {
+        List<byte[]> records = new ArrayList<>();
+        long size = extra;
+        for (Entry entry : pending.values()) {
+            byte[] record = encodeTask(entry);
+            records.add(record);
+            size += HEADER_SIZE + record.length;
+        }
+        long newCapacity = capacity;
+        while (newCapacity < size * 2) {
+            newCapacity *= 2;
+        }
+        if (newCapacity > Integer.MAX_VALUE) {
+            throw new IllegalStateException("Task journal is full: " + file);
+        }
+
+        File compacted = new File(file.getPath() + ".compact");
+        try {
+            Files.deleteIfExists(compacted.toPath());
+            try (FileChannel out = FileChannel.open(compacted.toPath(),
+                    StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer target = out.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+                for (byte[] record : records) {
+                    putRecord(target, record);
+                }
+                target.force();
+            }
+            // drop the old mapping along with its channel, so it is not kept reachable through the remap
+            buffer = null;
+            channel.close();
+            Files.move(compacted.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+            capacity = (int)newCapacity;
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.position((int)(size - extra));
+    }
+
+    private static byte[] encodeTask(Entry entry) {
+        byte[] type = entry.getType().getBytes(StandardCharsets.UTF_8);
+        if (type.length > 0xffff) {
+            throw new IllegalArgumentException("Task type is too long: " + entry.getType());
+        }
+        ByteBuffer body = ByteBuffer.allocate(1 + 8 + 2 + type.length + entry.getPayload().length);
+        body.put(TASK);
+        body.putLong(entry.getId());
+        body.putShort((short)type.length);
+        body.put(type);
+        body.put(entry.getPayload());
+        return body.array();
+    }
+
+    private static void putRecord(ByteBuffer target, byte[] body) {
+        int start = target.position();
+        target.position(start + HEADER_SIZE);
+        target.put(body);
+        target.putInt(start + 4, crc(body));
+        target.putInt(start, body.length);
+    }
+
+    private static int crc(byte[] body) {
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int)crc.getValue();
+    }
+}
@@ -1,39 +1,136 @@
 package io.stardog.starwizard.services.common;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.time.Clock;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Injectable service for getting the current time and date - can override the concept of "now" for test purposes.
+ *
+ * When constructed with a resolution, the service runs as a cached clock once started: a background ticker
+ * refreshes a snapshot of the current time and date at that resolution, and getNow() and getToday() just read it.
+ * This suits hot paths that timestamp or bucket by date many times a second and can tolerate the time being up to
+ * one resolution behind. Before start() and after stop(), the live clock is used.
+ *
+ * For converting many times to dates at once, toDates() and toBuckets() use a ZoneOffsetTable of the timezone's
+ * offsets from 1970 through 2100, rather than a ZonedDateTime per value. The table is built on first use, so services
+ * that never convert in bulk don't pay for it.
  */
 @Singleton
-public class TimeService {
+public class TimeService implements Managed {
     private final ZoneId timezone;
-    private Instant now = null;
+    private final Duration resolution;
+    private final Clock clock;
+    private volatile ZoneOffsetTable offsetTable;
+    private volatile Snapshot override = null;
+    private volatile Snapshot cached = null;
+    private ScheduledExecutorService ticker;
 
     @Inject
     public TimeService(@Named("timezone") ZoneId timezone) {
+        this(timezone, null);
+    }
+
+    /**
+     * @param timezone  timezone for dates
+     * @param resolution    how often the cached clock ticks, or null to always read the live clock
+     */
+    public TimeService(ZoneId timezone, @Nullable Duration resolution) {
+        this(timezone, resolution, Clock.systemUTC());
+    }
+
+    /**
+     * @param clock clock to read the time from, in place of the system clock
+     */
+    TimeService(ZoneId timezone, @Nullable Duration resolution, Clock clock) {
         this.timezone = timezone;
+        this.resolution = resolution;
+        this.clock = clock;
     }
 
+    /**
+     * A point in time along with its date, so that the two are always read together.
+     */
+    private static class Snapshot {
+        private final Instant instant;
+        private final long millis;
+        private final LocalDate date;
+        private final long nextDateMillis;
+
+        Snapshot(Instant instant, LocalDate date, long nextDateMillis) {
+            this.instant = instant;
+            this.millis = instant.toEpochMilli();
+            this.date = date;
+            this.nextDateMillis = nextDateMillis;
+        }
+    }
+
+    @Override
+    public synchronized void start() throws Exception {
+        if (resolution == null || ticker != null) {
+            return;
+        }
+        tick();
+        ticker = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("time-ticker-%d").setDaemon(true).build());
+        long periodNanos = resolution.toNanos();
+        ticker.scheduleAtFixedRate(this::tick, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public synchronized void stop() throws Exception {
+        if (ticker != null) {
+            ticker.shutdownNow();
+            ticker = null;
+        }
+        cached = null;
+    }
+
+    /**
+     * Override "today" for all threads, as the start of the given date.
+     * @param today date to treat as today
+     */
     public void setToday(LocalDate today) {
         setNow(today.atStartOfDay(timezone).toInstant());
     }
 
-    public void setNow(Instant now) {
-        this.now = now;
+    /**
+     * Override "now" for all threads.
+     * @param now   time to treat as now, or null to go back to the clock
+     */
+    public void setNow(@Nullable Instant now) {
+        this.override = now != null ? snapshot(now, null) : null;
     }
 
     public Instant getNow() {
-        return now != null ? now : Instant.now();
+        Snapshot s = current();
+        return s != null ? s.instant : clock.instant();
+    }
+
+    /**
+     * @return  current time in epoch milliseconds
+     */
+    public long getNowMillis() {
+        Snapshot s = current();
+        return s != null ? s.millis : clock.millis();
     }
 
     public LocalDate getToday() {
-        return toDate(getNow());
+        Snapshot s = current();
+        return s != null ? s.date : toDate(clock.instant());
     }
 
     public LocalDate toDate(Instant at) {
@@ -41,4 +138,57 @@ public class TimeService {
     }
 
     public Instant toInstant(LocalDate date) { return date.atStartOfDay(timezone).toInstant(); }
+
+    /**
+     * @param epochMillis   times in epoch milliseconds
+     * @return  the date of each time, as an epoch day (see LocalDate.ofEpochDay)
+     */
+    public int[] toDates(long[] epochMillis) {
+        return getOffsetTable().toEpochDays(epochMillis);
+    }
+
+    /**
+     * @param epochMillis   times in epoch milliseconds
+     * @param unit  DAYS, WEEKS (starting Monday) or MONTHS
+     * @return  the first date of each time's day, week or month, as an epoch day
+     */
+    public int[] toBuckets(long[] epochMillis, ChronoUnit unit) {
+        return getOffsetTable().toBuckets(epochMillis, unit);
+    }
+
+    private ZoneOffsetTable getOffsetTable() {
+        ZoneOffsetTable table = offsetTable;
+        if (table == null) {
+            synchronized (this) {
+                table = offsetTable;
+                if (table == null) {
+                    table = ZoneOffsetTable.of(timezone, 1970, 2100);
+                    offsetTable = table;
+                }
+            }
+        }
+        return table;
+    }
+
+    @Nullable
+    private Snapshot current() {
+        Snapshot s = override;
+        return s != null ? s : cached;
+    }
+
+    private void tick() {
+        cached = snapshot(clock.instant(), cached);
+    }
+
+    /**
+     * The date is only recalculated once the time passes the start of the next date.
+     */
+    private Snapshot snapshot(Instant now, @Nullable Snapshot previous) {
+        long millis = now.toEpochMilli();
+        if (previous != null && millis >= previous.millis && millis < previous.nextDateMillis) {
+            return new Snapshot(now, previous.date, previous.nextDateMillis);
+        }
+        LocalDate date = toDate(now);
+        return new Snapshot(now, date, toInstant(date.plusDays(1)).toEpochMilli());
+    }
 }
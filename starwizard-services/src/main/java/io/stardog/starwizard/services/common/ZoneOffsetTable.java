@@ -0,0 +1,181 @@
+package io.stardog.starwizard.services.common;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A time zone's UTC offsets over a range of years, flattened into sorted arrays of transition times and offsets, so
+ * that converting epoch milliseconds to a local epoch day is a binary search and some arithmetic rather than a
+ * ZonedDateTime per value. Times outside the range fall back to the zone's rules.
+ *
+ * The bulk methods also remember the span between transitions that the previous value fell in, so runs of values
+ * in the same span, which is the usual case for reporting data, skip the search entirely.
+ */
+public final class ZoneOffsetTable {
+    private final static long MILLIS_PER_DAY = 86_400_000L;
+
+    private final ZoneRules rules;
+    private final long minMillis;
+    private final long maxMillis;
+    private final long[] transitions;
+    private final int[] offsets;
+
+    private ZoneOffsetTable(ZoneRules rules, long minMillis, long maxMillis, long[] transitions, int[] offsets) {
+        this.rules = rules;
+        this.minMillis = minMillis;
+        this.maxMillis = maxMillis;
+        this.transitions = transitions;
+        this.offsets = offsets;
+    }
+
+    /**
+     * @param zone  time zone
+     * @param fromYear  first year to precompute
+     * @param toYear    last year to precompute
+     * @return  table of the zone's offsets for those years
+     */
+    public static ZoneOffsetTable of(ZoneId zone, int fromYear, int toYear) {
+        ZoneRules rules = zone.getRules();
+        // pad by a day on each side, since local years start up to a day apart from UTC years
+        Instant start = LocalDate.of(fromYear, 1, 1).atStartOfDay(ZoneOffset.UTC).toInstant().minus(1, ChronoUnit.DAYS);
+        Instant end = LocalDate.of(toYear + 1, 1, 1).atStartOfDay(ZoneOffset.UTC).toInstant().plus(1, ChronoUnit.DAYS);
+
+        List<Long> transitionList = new ArrayList<>();
+        List<Integer> offsetList = new ArrayList<>();
+        offsetList.add(rules.getOffset(start).getTotalSeconds());
+        ZoneOffsetTransition t = rules.nextTransition(start);
+        while (t != null && t.getInstant().isBefore(end)) {
+            transitionList.add(t.toEpochSecond() * 1000);
+            offsetList.add(t.getOffsetAfter().getTotalSeconds());
+            t = rules.nextTransition(t.getInstant());
+        }
+
+        long[] transitions = new long[transitionList.size()];
+        int[] offsets = new int[offsetList.size()];
+        for (int i = 0; i < transitions.length; i++) {
+            transitions[i] = transitionList.get(i);
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = offsetList.get(i);
+        }
+        return new ZoneOffsetTable(rules, start.toEpochMilli(), end.toEpochMilli(), transitions, offsets);
+    }
+
+    /**
+     * @param epochMillis   time in epoch milliseconds
+     * @return  the zone's UTC offset at that time, in seconds
+     */
+    public int getOffsetSeconds(long epochMillis) {
+        if (epochMillis < minMillis || epochMillis >= maxMillis) {
+            return rules.getOffset(Instant.ofEpochMilli(epochMillis)).getTotalSeconds();
+        }
+        return offsets[spanIndex(epochMillis)];
+    }
+
+    /**
+     * @param epochMillis   time in epoch milliseconds
+     * @return  local date at that time, as an epoch day
+     */
+    public int toEpochDay(long epochMillis) {
+        return (int)Math.floorDiv(epochMillis + getOffsetSeconds(epochMillis) * 1000L, MILLIS_PER_DAY);
+    }
+
+    /**
+     * @param epochMillis   times in epoch milliseconds
+     * @return  local dates at those times, as epoch days
+     */
+    public int[] toEpochDays(long[] epochMillis) {
+        int[] days = new int[epochMillis.length];
+        long spanStart = Long.MAX_VALUE;
+        long spanEnd = Long.MIN_VALUE;
+        long offsetMillis = 0;
+        for (int i = 0; i < epochMillis.length; i++) {
+            long millis = epochMillis[i];
+            if (millis < spanStart || millis >= spanEnd) {
+                if (millis < minMillis || millis >= maxMillis) {
+                    days[i] = toEpochDay(millis);
+                    continue;
+                }
+                int index = spanIndex(millis);
+                spanStart = index > 0 ? transitions[index - 1] : minMillis;
+                spanEnd = index < transitions.length ? transitions[index] : maxMillis;
+                offsetMillis = offsets[index] * 1000L;
+            }
+            days[i] = (int)Math.floorDiv(millis + offsetMillis, MILLIS_PER_DAY);
+        }
+        return days;
+    }
+
+    /**
+     * @param epochMillis   times in epoch milliseconds
+     * @param unit  DAYS, WEEKS (starting Monday) or MONTHS
+     * @return  for each time, the first local date of its day, week or month, as an epoch day
+     */
+    public int[] toBuckets(long[] epochMillis, ChronoUnit unit) {
+        int[] days = toEpochDays(epochMillis);
+        switch (unit) {
+            case DAYS:
+                break;
+            case WEEKS:
+                for (int i = 0; i < days.length; i++) {
+                    days[i] = weekStart(days[i]);
+                }
+                break;
+            case MONTHS:
+                for (int i = 0; i < days.length; i++) {
+                    days[i] = monthStart(days[i]);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported bucket unit: " + unit);
+        }
+        return days;
+    }
+
+    /**
+     * @param epochDay  epoch day
+     * @return  epoch day of the Monday starting its ISO week
+     */
+    public static int weekStart(int epochDay) {
+        // 1970-01-01 was a Thursday, three days after a Monday
+        return epochDay - Math.floorMod(epochDay + 3, 7);
+    }
+
+    /**
+     * Uses the days-to-civil algorithm from Howard Hinnant's "chrono-Compatible Low-Level Date Algorithms", which
+     * finds the day of the month without building a LocalDate.
+     * @param epochDay  epoch day
+     * @return  epoch day of the first of its month
+     */
+    public static int monthStart(int epochDay) {
+        int z = epochDay + 719468;
+        int era = Math.floorDiv(z, 146097);
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int monthIndex = (5 * dayOfYear + 2) / 153;
+        int dayOfMonth = dayOfYear - (153 * monthIndex + 2) / 5 + 1;
+        return epochDay - (dayOfMonth - 1);
+    }
+
+    private int spanIndex(long epochMillis) {
+        int lo = 0;
+        int hi = transitions.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (transitions[mid] <= epochMillis) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
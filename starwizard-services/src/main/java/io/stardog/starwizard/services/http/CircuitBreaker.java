@@ -0,0 +1,130 @@
+package io.stardog.starwizard.services.http;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A circuit breaker with closed, open and half-open states, tracking outcomes over a rolling window of time buckets.
+ *
+ * While closed, every request is allowed and its outcome recorded. Once the window holds at least minimumRequests
+ * outcomes and the failure rate reaches the threshold, the breaker opens and rejects requests. After the open
+ * duration it becomes half-open and allows a limited number of trial requests: a success closes the breaker with a
+ * fresh window, a failure opens it again.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final double failureRateThreshold;
+    private final int minimumRequests;
+    private final long bucketMillis;
+    private final long openMillis;
+    private final int halfOpenRequests;
+    private final LongSupplier clock;
+
+    private final long[] bucketStarts;
+    private final int[] successes;
+    private final int[] failures;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int trialsInFlight;
+
+    public CircuitBreaker(CircuitBreakerConfig config) {
+        this(config, System::currentTimeMillis);
+    }
+
+    public CircuitBreaker(CircuitBreakerConfig config, LongSupplier clock) {
+        this.failureRateThreshold = config.getFailureRateThreshold();
+        this.minimumRequests = config.getMinimumRequests();
+        this.bucketMillis = Math.max(1, config.getWindow().toMilliseconds() / config.getWindowBuckets());
+        this.openMillis = config.getOpenDuration().toMilliseconds();
+        this.halfOpenRequests = config.getHalfOpenRequests();
+        this.clock = clock;
+        this.bucketStarts = new long[config.getWindowBuckets()];
+        this.successes = new int[config.getWindowBuckets()];
+        this.failures = new int[config.getWindowBuckets()];
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && clock.getAsLong() - openedAt >= openMillis) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * Check whether a request may proceed. Every allowed request must be followed by a call to onSuccess or
+     * onFailure.
+     * @return  true if the request may proceed, false if it should be rejected
+     */
+    public synchronized boolean allowRequest() {
+        if (state == State.OPEN) {
+            if (clock.getAsLong() - openedAt < openMillis) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+            trialsInFlight = 0;
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialsInFlight >= halfOpenRequests) {
+                return false;
+            }
+            trialsInFlight++;
+        }
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        if (state == State.HALF_OPEN) {
+            state = State.CLOSED;
+            resetWindow();
+            return;
+        }
+        successes[currentBucket()]++;
+    }
+
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open();
+            return;
+        }
+        failures[currentBucket()]++;
+
+        long total = 0;
+        long failed = 0;
+        long windowStart = clock.getAsLong() - bucketMillis * bucketStarts.length;
+        for (int i = 0; i < bucketStarts.length; i++) {
+            if (bucketStarts[i] > windowStart) {
+                total += successes[i] + failures[i];
+                failed += failures[i];
+            }
+        }
+        if (state == State.CLOSED && total >= minimumRequests && failed >= failureRateThreshold * total) {
+            open();
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = clock.getAsLong();
+        trialsInFlight = 0;
+    }
+
+    private int currentBucket() {
+        long now = clock.getAsLong();
+        long bucketStart = now - (now % bucketMillis);
+        int index = (int)((now / bucketMillis) % bucketStarts.length);
+        if (bucketStarts[index] != bucketStart) {
+            bucketStarts[index] = bucketStart;
+            successes[index] = 0;
+            failures[index] = 0;
+        }
+        return index;
+    }
+
+    private void resetWindow() {
+        for (int i = 0; i < bucketStarts.length; i++) {
+            bucketStarts[i] = 0;
+            successes[i] = 0;
+            failures[i] = 0;
+        }
+    }
+}
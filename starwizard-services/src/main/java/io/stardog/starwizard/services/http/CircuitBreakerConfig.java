@@ -0,0 +1,107 @@
+package io.stardog.starwizard.services.http;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Settings for the per-host circuit breakers in HttpService. The breaker opens when, over the rolling window, at
+ * least minimumRequests have been made and the failure rate reaches failureRateThreshold. After openDuration it
+ * lets halfOpenRequests trial requests through, closing again if they succeed.
+ */
+public class CircuitBreakerConfig {
+    private boolean enabled = false;
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double failureRateThreshold = 0.5;
+
+    @Min(1)
+    private int minimumRequests = 20;
+
+    @NotNull
+    private Duration window = Duration.seconds(10);
+
+    @Min(1)
+    private int windowBuckets = 10;
+
+    @NotNull
+    private Duration openDuration = Duration.seconds(30);
+
+    @Min(1)
+    private int halfOpenRequests = 1;
+
+    @JsonProperty
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @JsonProperty
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    @JsonProperty
+    public double getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    @JsonProperty
+    public void setFailureRateThreshold(double failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    @JsonProperty
+    public int getMinimumRequests() {
+        return minimumRequests;
+    }
+
+    @JsonProperty
+    public void setMinimumRequests(int minimumRequests) {
+        this.minimumRequests = minimumRequests;
+    }
+
+    @JsonProperty
+    public Duration getWindow() {
+        return window;
+    }
+
+    @JsonProperty
+    public void setWindow(Duration window) {
+        this.window = window;
+    }
+
+    @JsonProperty
+    public int getWindowBuckets() {
+        return windowBuckets;
+    }
+
+    @JsonProperty
+    public void setWindowBuckets(int windowBuckets) {
+        this.windowBuckets = windowBuckets;
+    }
+
+    @JsonProperty
+    public Duration getOpenDuration() {
+        return openDuration;
+    }
+
+    @JsonProperty
+    public void setOpenDuration(Duration openDuration) {
+        this.openDuration = openDuration;
+    }
+
+    @JsonProperty
+    public int getHalfOpenRequests() {
+        return halfOpenRequests;
+    }
+
+    @JsonProperty
+    public void setHalfOpenRequests(int halfOpenRequests) {
+        this.halfOpenRequests = halfOpenRequests;
+    }
+}
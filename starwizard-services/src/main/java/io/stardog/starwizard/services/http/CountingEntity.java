@@ -0,0 +1,82 @@
+package io.stardog.starwizard.services.http;
+
+import com.codahale.metrics.Histogram;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Wraps a response entity to record the number of body bytes actually read, whether or not the server sent a
+ * Content-Length. The count is recorded once, when the content stream is closed.
+ */
+class CountingEntity extends HttpEntityWrapper {
+    private final Histogram histogram;
+
+    CountingEntity(HttpEntity wrapped, Histogram histogram) {
+        super(wrapped);
+        this.histogram = histogram;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new CountingInputStream(super.getContent());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try (InputStream in = getContent()) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        private long count;
+        private boolean closed;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                histogram.update(count);
+            }
+            super.close();
+        }
+    }
+}
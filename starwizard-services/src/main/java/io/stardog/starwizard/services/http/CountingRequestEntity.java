@@ -0,0 +1,77 @@
+package io.stardog.starwizard.services.http;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Wraps a request entity whose length is not known in advance, such as a streamed or gzip-compressed JsonEntity, to
+ * count the body bytes actually sent. The count covers the most recent send, so a retried request reports the bytes
+ * of its final attempt.
+ */
+class CountingRequestEntity extends HttpEntityWrapper {
+    private volatile long bytesSent = -1;
+
+    CountingRequestEntity(HttpEntity wrapped) {
+        super(wrapped);
+    }
+
+    /**
+     * @return  number of body bytes sent by the most recent send, or -1 if the entity has not been sent
+     */
+    long getBytesSent() {
+        return bytesSent;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        bytesSent = 0;
+        return new FilterInputStream(super.getContent()) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b != -1) {
+                    bytesSent++;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                int n = super.read(b, off, len);
+                if (n > 0) {
+                    bytesSent += n;
+                }
+                return n;
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        bytesSent = 0;
+        super.writeTo(new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytesSent++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytesSent += len;
+            }
+
+            @Override
+            public void close() {
+                // the client owns the output stream
+            }
+        });
+    }
+}
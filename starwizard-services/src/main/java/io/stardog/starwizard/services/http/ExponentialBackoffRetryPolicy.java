@@ -0,0 +1,87 @@
+package io.stardog.starwizard.services.http;
+
+import com.google.common.collect.ImmutableSet;
+import org.apache.http.Header;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retries idempotent requests that failed with a connection error, or with a 429, 502, 503 or 504 response, using
+ * exponential backoff with full jitter. Read timeouts are not retried, since the upstream may already be overloaded
+ * and each attempt would wait out the full socket timeout again. Neither are timeouts waiting for a pooled
+ * connection, since retrying only adds to the queue for the exhausted pool.
+ *
+ * A 429 or 503 with a Retry-After header waits at least as long as the header asks; if that is longer than the
+ * maximum delay, the request is not retried.
+ */
+public class ExponentialBackoffRetryPolicy implements RetryPolicy {
+    private final int maxRetries;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final static Set<String> IDEMPOTENT_METHODS = ImmutableSet.of("GET", "HEAD", "OPTIONS", "PUT", "DELETE");
+    private final static Set<Integer> RETRYABLE_STATUSES = ImmutableSet.of(429, 502, 503, 504);
+
+    public ExponentialBackoffRetryPolicy(int maxRetries, long baseDelayMillis, long maxDelayMillis) {
+        this.maxRetries = maxRetries;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+    }
+
+    public ExponentialBackoffRetryPolicy(RetryConfig config) {
+        this(config.getMaxRetries(), config.getBaseDelay().toMilliseconds(), config.getMaxDelay().toMilliseconds());
+    }
+
+    @Override
+    public long retryDelayMillis(int attempt, HttpUriRequest request, @Nullable HttpResponse response, @Nullable IOException error) {
+        if (attempt >= maxRetries || !IDEMPOTENT_METHODS.contains(request.getMethod())) {
+            return -1;
+        }
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest)request;
+            if (enclosing.getEntity() != null && !enclosing.getEntity().isRepeatable()) {
+                return -1;
+            }
+        }
+        if (error instanceof SocketTimeoutException || error instanceof ConnectionPoolTimeoutException) {
+            return -1;
+        }
+        if (error == null && (response == null || !RETRYABLE_STATUSES.contains(response.getStatusLine().getStatusCode()))) {
+            return -1;
+        }
+        long ceiling = Math.min(maxDelayMillis, baseDelayMillis << Math.min(attempt, 30));
+        long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+        long retryAfter = response != null ? parseRetryAfterMillis(response.getFirstHeader(HttpHeaders.RETRY_AFTER)) : -1;
+        if (retryAfter > maxDelayMillis) {
+            return -1;
+        }
+        return Math.max(delay, retryAfter);
+    }
+
+    /**
+     * @param header    Retry-After header, as either a number of seconds or an HTTP date
+     * @return  delay in milliseconds, or -1 if absent or unparseable
+     */
+    static long parseRetryAfterMillis(@Nullable Header header) {
+        if (header == null || header.getValue() == null) {
+            return -1;
+        }
+        String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = DateUtils.parseDate(value);
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+        }
+    }
+}
@@ -0,0 +1,287 @@
+package io.stardog.starwizard.services.http;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import javax.validation.Valid;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Connection pool and timeout settings for HttpService, suitable for embedding in a Dropwizard configuration class.
+ * All fields have defaults, so an empty block (or no block at all) is valid.
+ *
+ * Per-host overrides are keyed by scheme, host and optional port, e.g. "https://api.example.com" or
+ * "http://localhost:8080". A host without a scheme is treated as https.
+ */
+public class HttpClientConfig {
+    @NotNull
+    private String name = "default";
+
+    @Min(1)
+    private int maxConnections = 200;
+
+    @Min(1)
+    private int maxConnectionsPerRoute = 20;
+
+    @NotNull
+    private Map<String,Integer> maxConnectionsPerHost = new HashMap<>();
+
+    @NotNull
+    private Duration timeToLive = Duration.minutes(5);
+
+    @NotNull
+    private Duration keepAlive = Duration.seconds(30);
+
+    @NotNull
+    private Duration validateAfterInactivity = Duration.seconds(2);
+
+    @NotNull
+    private Duration idleTimeout = Duration.seconds(30);
+
+    @NotNull
+    private Duration evictionInterval = Duration.seconds(10);
+
+    @NotNull
+    private Duration connectTimeout = Duration.seconds(10);
+
+    @NotNull
+    private Duration connectionRequestTimeout = Duration.seconds(10);
+
+    @NotNull
+    private Duration socketTimeout = Duration.seconds(60);
+
+    @Min(0)
+    private int responseCacheSize = 0;
+
+    private boolean coalesceRequests = false;
+
+    private boolean gzipRequests = false;
+
+    @Min(0)
+    private int maxRoutesPerHost = 100;
+
+    @Valid
+    @NotNull
+    private CircuitBreakerConfig circuitBreaker = new CircuitBreakerConfig();
+
+    @Valid
+    @NotNull
+    private RetryConfig retry = new RetryConfig();
+
+    /**
+     * @return  name used to distinguish this client's metrics from those of other clients
+     */
+    @JsonProperty
+    public String getName() {
+        return name;
+    }
+
+    @JsonProperty
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    @JsonProperty
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    @JsonProperty
+    public void setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+    }
+
+    @JsonProperty
+    public int getMaxConnectionsPerRoute() {
+        return maxConnectionsPerRoute;
+    }
+
+    @JsonProperty
+    public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+        this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    }
+
+    @JsonProperty
+    public Map<String,Integer> getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    @JsonProperty
+    public void setMaxConnectionsPerHost(Map<String,Integer> maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+
+    /**
+     * @return  maximum lifetime of a pooled connection, regardless of activity
+     */
+    @JsonProperty
+    public Duration getTimeToLive() {
+        return timeToLive;
+    }
+
+    @JsonProperty
+    public void setTimeToLive(Duration timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @return  how long to keep an idle connection alive when the server does not send a Keep-Alive timeout
+     */
+    @JsonProperty
+    public Duration getKeepAlive() {
+        return keepAlive;
+    }
+
+    @JsonProperty
+    public void setKeepAlive(Duration keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+
+    /**
+     * @return  how long a connection may sit idle before it is checked for staleness on lease
+     */
+    @JsonProperty
+    public Duration getValidateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    @JsonProperty
+    public void setValidateAfterInactivity(Duration validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+
+    /**
+     * @return  connections idle for longer than this are closed by the background evictor
+     */
+    @JsonProperty
+    public Duration getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    @JsonProperty
+    public void setIdleTimeout(Duration idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * @return  how often the background evictor runs
+     */
+    @JsonProperty
+    public Duration getEvictionInterval() {
+        return evictionInterval;
+    }
+
+    @JsonProperty
+    public void setEvictionInterval(Duration evictionInterval) {
+        this.evictionInterval = evictionInterval;
+    }
+
+    @JsonProperty
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    @JsonProperty
+    public void setConnectTimeout(Duration connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    /**
+     * @return  how long to wait for a connection to become available from the pool
+     */
+    @JsonProperty
+    public Duration getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    @JsonProperty
+    public void setConnectionRequestTimeout(Duration connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+
+    @JsonProperty
+    public Duration getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    @JsonProperty
+    public void setSocketTimeout(Duration socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+
+    /**
+     * @return  maximum number of parsed GET responses to cache, or 0 to disable response caching
+     */
+    @JsonProperty
+    public int getResponseCacheSize() {
+        return responseCacheSize;
+    }
+
+    @JsonProperty
+    public void setResponseCacheSize(int responseCacheSize) {
+        this.responseCacheSize = responseCacheSize;
+    }
+
+    /**
+     * @return  whether concurrent identical getJson calls should share a single upstream request
+     */
+    @JsonProperty
+    public boolean isCoalesceRequests() {
+        return coalesceRequests;
+    }
+
+    @JsonProperty
+    public void setCoalesceRequests(boolean coalesceRequests) {
+        this.coalesceRequests = coalesceRequests;
+    }
+
+    /**
+     * @return  whether JSON request bodies should be gzip-compressed (the upstream must accept Content-Encoding: gzip)
+     */
+    @JsonProperty
+    public boolean isGzipRequests() {
+        return gzipRequests;
+    }
+
+    @JsonProperty
+    public void setGzipRequests(boolean gzipRequests) {
+        this.gzipRequests = gzipRequests;
+    }
+
+    /**
+     * @return  maximum number of distinct route templates timed per host; requests on further routes are timed as
+     *          {other}, and 0 disables route timers
+     */
+    @JsonProperty
+    public int getMaxRoutesPerHost() {
+        return maxRoutesPerHost;
+    }
+
+    @JsonProperty
+    public void setMaxRoutesPerHost(int maxRoutesPerHost) {
+        this.maxRoutesPerHost = maxRoutesPerHost;
+    }
+
+    @JsonProperty
+    public CircuitBreakerConfig getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    @JsonProperty
+    public void setCircuitBreaker(CircuitBreakerConfig circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    @JsonProperty
+    public RetryConfig getRetry() {
+        return retry;
+    }
+
+    @JsonProperty
+    public void setRetry(RetryConfig retry) {
+        this.retry = retry;
+    }
+}
@@ -0,0 +1,130 @@
+package io.stardog.starwizard.services.http;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.protocol.HttpCoreContext;
+
+import javax.annotation.Nullable;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds Apache HttpClient instances and connection pools from an HttpClientConfig.
+ */
+public class HttpClientFactory {
+    private HttpClientFactory() {
+    }
+
+    public static PoolingHttpClientConnectionManager buildConnectionManager(HttpClientConfig config) {
+        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager(
+                config.getTimeToLive().toMilliseconds(), TimeUnit.MILLISECONDS);
+        cm.setMaxTotal(config.getMaxConnections());
+        cm.setDefaultMaxPerRoute(config.getMaxConnectionsPerRoute());
+        for (Map.Entry<String,Integer> e : config.getMaxConnectionsPerHost().entrySet()) {
+            cm.setMaxPerRoute(toRoute(e.getKey()), e.getValue());
+        }
+        cm.setValidateAfterInactivity((int)config.getValidateAfterInactivity().toMilliseconds());
+
+        // set SSL timeout http://stackoverflow.com/questions/9925113/httpclient-stuck-without-any-exception
+        cm.setDefaultSocketConfig(SocketConfig.custom()
+                .setSoTimeout((int)config.getSocketTimeout().toMilliseconds())
+                .build());
+        return cm;
+    }
+
+    public static CloseableHttpClient buildHttpClient(HttpClientConfig config, PoolingHttpClientConnectionManager cm) {
+        return buildHttpClient(config, cm, null);
+    }
+
+    /**
+     * Build a client on the given pool, optionally instrumented to record pool lease, connect and server time, and
+     * response sizes.
+     * @param config    client config
+     * @param cm    connection pool
+     * @param metrics   instrumentation, or null for none
+     * @return  client
+     */
+    public static CloseableHttpClient buildHttpClient(HttpClientConfig config, PoolingHttpClientConnectionManager cm,
+                                                      @Nullable HttpClientMetrics metrics) {
+        HttpClientBuilder builder = HttpClientBuilder.create()
+                .disableAutomaticRetries()
+                .setDefaultRequestConfig(buildRequestConfig(config))
+                .setKeepAliveStrategy(buildKeepAliveStrategy(config));
+        if (metrics == null) {
+            return builder.setConnectionManager(cm).build();
+        }
+        return builder
+                .setConnectionManager(new InstrumentedConnectionManager(cm, metrics))
+                .setRequestExecutor(new InstrumentedRequestExecutor(metrics))
+                .addInterceptorLast((HttpResponseInterceptor)(response, context) -> {
+                    HttpEntity entity = response.getEntity();
+                    HttpHost target = HttpCoreContext.adapt(context).getTargetHost();
+                    if (entity != null && target != null) {
+                        response.setEntity(new CountingEntity(entity, metrics.responseBytes(target)));
+                    }
+                })
+                .build();
+    }
+
+    public static CloseableHttpAsyncClient buildAsyncClient(HttpClientConfig config) {
+        return HttpAsyncClients.custom()
+                .setDefaultIOReactorConfig(IOReactorConfig.custom()
+                        .setSoTimeout((int)config.getSocketTimeout().toMilliseconds())
+                        .setConnectTimeout((int)config.getConnectTimeout().toMilliseconds())
+                        .build())
+                .setMaxConnTotal(config.getMaxConnections())
+                .setMaxConnPerRoute(config.getMaxConnectionsPerRoute())
+                .setDefaultRequestConfig(buildRequestConfig(config))
+                .setKeepAliveStrategy(buildKeepAliveStrategy(config))
+                .build();
+    }
+
+    public static RequestConfig buildRequestConfig(HttpClientConfig config) {
+        return RequestConfig.custom()
+                .setConnectTimeout((int)config.getConnectTimeout().toMilliseconds())
+                .setConnectionRequestTimeout((int)config.getConnectionRequestTimeout().toMilliseconds())
+                .setSocketTimeout((int)config.getSocketTimeout().toMilliseconds())
+                .build();
+    }
+
+    /**
+     * Honor the server's Keep-Alive timeout if it sends one; otherwise fall back to the configured keep-alive, rather
+     * than the library default of keeping the connection forever.
+     * @param config    client config
+     * @return  keep-alive strategy
+     */
+    public static ConnectionKeepAliveStrategy buildKeepAliveStrategy(HttpClientConfig config) {
+        long fallbackMs = config.getKeepAlive().toMilliseconds();
+        return (response, context) -> {
+            long serverMs = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return serverMs > 0 ? serverMs : fallbackMs;
+        };
+    }
+
+    /**
+     * Convert a per-host override key such as "https://api.example.com" or "api.example.com:8443" into the direct
+     * route the connection manager will use for it.
+     * @param host  host key
+     * @return  route
+     */
+    static HttpRoute toRoute(String host) {
+        URI uri = URI.create(host.contains("://") ? host : "https://" + host);
+        String scheme = uri.getScheme().toLowerCase();
+        boolean secure = "https".equals(scheme);
+        int port = uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80);
+        return new HttpRoute(new HttpHost(uri.getHost(), port, scheme), null, secure);
+    }
+}
@@ -0,0 +1,189 @@
+package io.stardog.starwizard.services.http;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.routing.HttpRoute;
+
+import java.net.URI;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Dropwizard Metrics instrumentation for outbound HTTP requests. All metrics are registered under http.{name}:
+ *
+ *   host.{host}.requests - timer per host, from sending the request until the response headers arrive
+ *   route.{host}.{method}.{template} - the same timer per route, with ids in the path masked as {id}. Only the
+ *       first maxRoutesPerHost templates seen for a host get their own timer; the rest share route.{host}.{other}
+ *   host.{host}.lease - time spent waiting for a pooled connection
+ *   host.{host}.connect - time spent opening new connections
+ *   host.{host}.server - time spent on an established connection, from sending the request to the response headers
+ *   host.{host}.requestBytes / host.{host}.responseBytes - histograms of entity sizes; bodies of unknown length, such
+ *       as streamed JSON, are counted as they are sent, provided beforeRequest() was called
+ *   status.{1xx..5xx} - counters per status class
+ *   errors.{ExceptionClass} - counters per exception type
+ *
+ * The lease, connect, server and responseBytes metrics are only available for clients built by HttpClientFactory with
+ * this instrumentation, since they hook into the connection manager and request executor.
+ */
+public class HttpClientMetrics {
+    private final MetricRegistry metrics;
+    private final String prefix;
+    private final int maxRoutesPerHost;
+    private final ConcurrentMap<String,Set<String>> routesByHost = new ConcurrentHashMap<>();
+    private final static String OTHER_ROUTE = "{other}";
+    private final static int DEFAULT_MAX_ROUTES_PER_HOST = 100;
+    private final static Pattern ID_SEGMENT = Pattern.compile(
+            "\\d+|[0-9a-fA-F]{16,}|[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}|[A-Za-z]+_[A-Za-z0-9]{8,}");
+
+    public HttpClientMetrics(MetricRegistry metrics, String name) {
+        this(metrics, name, DEFAULT_MAX_ROUTES_PER_HOST);
+    }
+
+    /**
+     * @param metrics   metric registry
+     * @param name  client name
+     * @param maxRoutesPerHost  maximum number of route timers per host, or 0 for none
+     */
+    public HttpClientMetrics(MetricRegistry metrics, String name, int maxRoutesPerHost) {
+        this.metrics = metrics;
+        this.prefix = MetricRegistry.name("http", name);
+        this.maxRoutesPerHost = maxRoutesPerHost;
+    }
+
+    public void onResponse(HttpUriRequest request, HttpResponse response, long nanos) {
+        String host = toHostKey(request.getURI());
+        requestTimer(host).update(nanos, TimeUnit.NANOSECONDS);
+        recordRoute(host, request, nanos);
+        recordRequestBytes(host, request);
+        metrics.counter(MetricRegistry.name(prefix, "status", (response.getStatusLine().getStatusCode() / 100) + "xx")).inc();
+    }
+
+    public void onError(HttpUriRequest request, Throwable error, long nanos) {
+        String host = toHostKey(request.getURI());
+        requestTimer(host).update(nanos, TimeUnit.NANOSECONDS);
+        recordRoute(host, request, nanos);
+        recordRequestBytes(host, request);
+        metrics.counter(MetricRegistry.name(prefix, "errors", toErrorName(error))).inc();
+    }
+
+    /**
+     * Prepare a request for instrumentation before it is sent. A body of unknown length is wrapped so that the bytes
+     * actually sent can be recorded as requestBytes.
+     * @param request   request about to be executed
+     */
+    public void beforeRequest(HttpUriRequest request) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntityEnclosingRequest enclosing = (HttpEntityEnclosingRequest)request;
+            HttpEntity entity = enclosing.getEntity();
+            if (entity != null && entity.getContentLength() < 0 && !(entity instanceof CountingRequestEntity)) {
+                enclosing.setEntity(new CountingRequestEntity(entity));
+            }
+        }
+    }
+
+    Timer leaseTimer(HttpRoute route) {
+        return metrics.timer(MetricRegistry.name(prefix, "host", toHostKey(route.getTargetHost()), "lease"));
+    }
+
+    Timer connectTimer(HttpRoute route) {
+        return metrics.timer(MetricRegistry.name(prefix, "host", toHostKey(route.getTargetHost()), "connect"));
+    }
+
+    Timer serverTimer(HttpHost host) {
+        return metrics.timer(MetricRegistry.name(prefix, "host", toHostKey(host), "server"));
+    }
+
+    Histogram responseBytes(HttpHost host) {
+        return metrics.histogram(MetricRegistry.name(prefix, "host", toHostKey(host), "responseBytes"));
+    }
+
+    private Timer requestTimer(String host) {
+        return metrics.timer(MetricRegistry.name(prefix, "host", host, "requests"));
+    }
+
+    private void recordRoute(String host, HttpUriRequest request, long nanos) {
+        if (maxRoutesPerHost <= 0) {
+            return;
+        }
+        String route = MetricRegistry.name(request.getMethod(), toRouteTemplate(request.getURI().getRawPath()));
+        Set<String> routes = routesByHost.computeIfAbsent(host, h -> ConcurrentHashMap.newKeySet());
+        if (!routes.contains(route)) {
+            // the size check and add can race, so the cap may be overshot by a few routes under concurrency
+            if (routes.size() < maxRoutesPerHost) {
+                routes.add(route);
+            } else {
+                route = OTHER_ROUTE;
+            }
+        }
+        metrics.timer(MetricRegistry.name(prefix, "route", host, route)).update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Anonymous and local classes have an empty simple name, so fall back to the full name for those.
+     */
+    static String toErrorName(Throwable error) {
+        String name = error.getClass().getSimpleName();
+        return name.isEmpty() ? error.getClass().getName() : name;
+    }
+
+    private void recordRequestBytes(String host, HttpUriRequest request) {
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest)request).getEntity();
+            long bytes = entity instanceof CountingRequestEntity
+                    ? ((CountingRequestEntity)entity).getBytesSent()
+                    : entity != null ? entity.getContentLength() : -1;
+            if (bytes >= 0) {
+                metrics.histogram(MetricRegistry.name(prefix, "host", host, "requestBytes")).update(bytes);
+            }
+        }
+    }
+
+    static String toHostKey(URI uri) {
+        return toHostKey(uri.getScheme(), uri.getHost(), uri.getPort());
+    }
+
+    static String toHostKey(HttpHost host) {
+        return toHostKey(host.getSchemeName(), host.getHostName(), host.getPort());
+    }
+
+    /**
+     * Every per-host metric is named with this key, so that a host's metrics line up whether they were recorded from
+     * the request URI or from the connection's target, which leave out the default port in different places.
+     * @return  lower-cased host and port, with the scheme's default port filled in, e.g. api.example.com:443
+     */
+    static String toHostKey(String scheme, String host, int port) {
+        if (port < 0) {
+            port = "http".equalsIgnoreCase(scheme) ? 80 : 443;
+        }
+        return host.toLowerCase(Locale.ROOT) + ":" + port;
+    }
+
+    /**
+     * Convert a request path into a route template by masking path segments that look like ids -- numbers, UUIDs,
+     * long hex strings, and prefixed ids like "cus_1234abcd" -- so that requests for different ids share a timer.
+     * @param path  request path
+     * @return  route template, e.g. /users/{id}/orders
+     */
+    static String toRouteTemplate(String path) {
+        if (path == null || path.isEmpty()) {
+            return "/";
+        }
+        String[] segments = path.split("/", -1);
+        StringBuilder template = new StringBuilder();
+        for (int i = 1; i < segments.length; i++) {
+            template.append('/');
+            template.append(ID_SEGMENT.matcher(segments[i]).matches() ? "{id}" : segments[i]);
+        }
+        return template.length() > 0 ? template.toString() : "/";
+    }
+}
@@ -0,0 +1,129 @@
+package io.stardog.starwizard.services.http;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Runs background eviction of expired and idle connections for a connection pool, and publishes pool statistics as
+ * gauges. Totals are published as http.{name}.pool.{leased,pending,available,max}; each route seen by the pool gets
+ * the same gauges under http.{name}.pool.{scheme}.{host}.{port}, registered as the route first appears. Only one
+ * pool with a given name can be monitored at a time, since their gauges would collide; the gauges are removed again
+ * on close, so a pool with the same name can be monitored afterwards.
+ *
+ * Eviction runs on a daemon thread, started by the first call to start() and stopped for good by close().
+ */
+public class HttpConnectionPoolMonitor implements AutoCloseable {
+    private final PoolingHttpClientConnectionManager cm;
+    private final HttpClientConfig config;
+    private final MetricRegistry metrics;
+    private final Set<HttpRoute> registeredRoutes = ConcurrentHashMap.newKeySet();
+    private final Set<String> gaugeNames = ConcurrentHashMap.newKeySet();
+    private volatile ScheduledExecutorService scheduler;
+    private volatile boolean isClosed = false;
+    private final static Logger LOGGER = LoggerFactory.getLogger(HttpConnectionPoolMonitor.class);
+
+    public HttpConnectionPoolMonitor(PoolingHttpClientConnectionManager cm, HttpClientConfig config,
+                                     @Nullable MetricRegistry metrics) {
+        this.cm = cm;
+        this.config = config;
+        this.metrics = metrics;
+
+        if (metrics != null) {
+            try {
+                registerGauges(poolName(), PoolingHttpClientConnectionManager::getTotalStats);
+            } catch (IllegalArgumentException e) {
+                close();
+                throw new IllegalArgumentException("A connection pool named " + config.getName()
+                        + " is already monitored; give each HttpClientConfig a unique name", e);
+            }
+        }
+    }
+
+    /**
+     * Start background eviction, if it is not already running and the monitor has not been closed.
+     */
+    public void start() {
+        if (scheduler == null && !isClosed) {
+            startScheduler();
+        }
+    }
+
+    private synchronized void startScheduler() {
+        if (scheduler != null || isClosed) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("http-" + config.getName() + "-evictor")
+                .setDaemon(true)
+                .build());
+        long intervalMs = config.getEvictionInterval().toMilliseconds();
+        scheduler.scheduleWithFixedDelay(this::evict, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    void evict() {
+        try {
+            cm.closeExpiredConnections();
+            cm.closeIdleConnections(config.getIdleTimeout().toMilliseconds(), TimeUnit.MILLISECONDS);
+            if (metrics != null) {
+                for (HttpRoute route : cm.getRoutes()) {
+                    if (!isClosed && registeredRoutes.add(route)) {
+                        registerGauges(routeName(route), c -> c.getStats(route));
+                    }
+                }
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Failed to evict idle connections", e);
+        }
+    }
+
+    private String poolName() {
+        return MetricRegistry.name("http", config.getName(), "pool");
+    }
+
+    String routeName(HttpRoute route) {
+        HttpHost target = route.getTargetHost();
+        int port = target.getPort() >= 0 ? target.getPort() : ("https".equals(target.getSchemeName()) ? 443 : 80);
+        return MetricRegistry.name(poolName(), target.getSchemeName(), target.getHostName(), String.valueOf(port));
+    }
+
+    private void registerGauges(String prefix, Function<PoolingHttpClientConnectionManager,PoolStats> stats) {
+        gauge(MetricRegistry.name(prefix, "leased"), () -> stats.apply(cm).getLeased());
+        gauge(MetricRegistry.name(prefix, "pending"), () -> stats.apply(cm).getPending());
+        gauge(MetricRegistry.name(prefix, "available"), () -> stats.apply(cm).getAvailable());
+        gauge(MetricRegistry.name(prefix, "max"), () -> stats.apply(cm).getMax());
+    }
+
+    private synchronized void gauge(String name, Gauge<Integer> gauge) {
+        // register() throws if another pool has this name, and only gauges registered here are removed on close
+        metrics.register(name, gauge);
+        gaugeNames.add(name);
+    }
+
+    @Override
+    public synchronized void close() {
+        isClosed = true;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (metrics != null) {
+            gaugeNames.forEach(metrics::remove);
+            gaugeNames.clear();
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package io.stardog.starwizard.services.http;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.apache.http.Header;
+import org.apache.http.HeaderElement;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded in-memory cache of parsed JSON GET responses, used by HttpService when a response cache size is
+ * configured.
+ *
+ * Entries are keyed by method, final URI and request headers. They are fresh for the Cache-Control max-age of the
+ * response. A stale entry with an ETag or Last-Modified is revalidated with If-None-Match / If-Modified-Since, and a
+ * 304 reuses the previously parsed body. Responses marked no-store, or with neither a max-age nor a validator, are not
+ * cached.
+ *
+ * The cache keeps its own copy of each body and hands every caller a fresh deep copy, so callers may modify what
+ * they get back.
+ */
+public class HttpResponseCache {
+    private final Cache<String,Entry> cache;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter revalidations;
+
+    public HttpResponseCache(int maxEntries, String name, @Nullable MetricRegistry metrics) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .build();
+        String prefix = MetricRegistry.name("http", name, "cache");
+        this.hits = metrics != null ? metrics.counter(MetricRegistry.name(prefix, "hits")) : new Counter();
+        this.misses = metrics != null ? metrics.counter(MetricRegistry.name(prefix, "misses")) : new Counter();
+        this.revalidations = metrics != null ? metrics.counter(MetricRegistry.name(prefix, "revalidations")) : new Counter();
+    }
+
+    public long getHitCount() {
+        return hits.getCount();
+    }
+
+    public long getMissCount() {
+        return misses.getCount();
+    }
+
+    public long getRevalidationCount() {
+        return revalidations.getCount();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    /**
+     * Return a fresh cached body for the request, or null if there is none. If there is a stale entry that can be
+     * revalidated, the conditional headers are added to the request.
+     * @param key   cache key for the request
+     * @param request   request about to be executed
+     * @return  fresh body, or null if the request must go upstream
+     */
+    Map<String,Object> lookup(String key, HttpUriRequest request) {
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt > System.currentTimeMillis()) {
+            hits.inc();
+            return copyOf(entry.body);
+        }
+        if (entry.etag != null) {
+            request.setHeader(HttpHeaders.IF_NONE_MATCH, entry.etag);
+        }
+        if (entry.lastModified != null) {
+            request.setHeader(HttpHeaders.IF_MODIFIED_SINCE, entry.lastModified);
+        }
+        return null;
+    }
+
+    /**
+     * Handle a 304 Not Modified response by refreshing the stored entry's lifetime.
+     * @param key   cache key for the request
+     * @param response  304 response
+     * @return  previously parsed body, or null if the entry has since been evicted
+     */
+    Map<String,Object> revalidated(String key, HttpResponse response) {
+        Entry entry = cache.getIfPresent(key);
+        if (entry == null) {
+            return null;
+        }
+        revalidations.inc();
+        cache.put(key, new Entry(entry.body, entry.etag, entry.lastModified, toExpiresAt(response)));
+        return copyOf(entry.body);
+    }
+
+    /**
+     * Store a freshly fetched 200 response, if its headers allow caching.
+     * @param key   cache key for the request
+     * @param response  response
+     * @param body  parsed body
+     */
+    void store(String key, HttpResponse response, Map<String,Object> body) {
+        misses.inc();
+        if (response.getStatusLine().getStatusCode() != 200) {
+            return;
+        }
+        CacheControl control = parseCacheControl(response.getHeaders(HttpHeaders.CACHE_CONTROL));
+        String etag = headerValue(response, HttpHeaders.ETAG);
+        String lastModified = headerValue(response, HttpHeaders.LAST_MODIFIED);
+        if (control.noStore || (control.maxAge <= 0 && etag == null && lastModified == null)) {
+            cache.invalidate(key);
+            return;
+        }
+        cache.put(key, new Entry(copyOf(body), etag, lastModified, toExpiresAt(response)));
+    }
+
+    /**
+     * Deep-copy a parsed JSON body, copying nested maps and lists so that no mutable state is shared with the
+     * original. Other values, such as strings and numbers, are immutable and are shared.
+     * @param body  parsed JSON body
+     * @return  mutable copy of the body
+     */
+    static Map<String,Object> copyOf(Map<String,Object> body) {
+        Map<String,Object> copy = new HashMap<>(body.size() * 4 / 3 + 1);
+        for (Map.Entry<String,Object> e : body.entrySet()) {
+            copy.put(e.getKey(), copyValue(e.getValue()));
+        }
+        return copy;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copyValue(Object value) {
+        if (value instanceof Map) {
+            return copyOf((Map<String,Object>)value);
+        }
+        if (value instanceof List) {
+            List<Object> list = (List<Object>)value;
+            List<Object> copy = new ArrayList<>(list.size());
+            for (Object item : list) {
+                copy.add(copyValue(item));
+            }
+            return copy;
+        }
+        return value;
+    }
+
+    /**
+     * Build the cache key for a request: the method, URI, and request headers in a stable order.
+     * @param request   request
+     * @return  cache key
+     */
+    static String toKey(HttpUriRequest request) {
+        StringBuilder key = new StringBuilder()
+                .append(request.getMethod())
+                .append(' ')
+                .append(request.getURI());
+        Header[] headers = request.getAllHeaders();
+        Arrays.sort(headers, Comparator.comparing((Header h) -> h.getName().toLowerCase()).thenComparing(Header::getValue));
+        for (Header h : headers) {
+            key.append('\n').append(h.getName().toLowerCase()).append(':').append(h.getValue());
+        }
+        return key.toString();
+    }
+
+    static CacheControl parseCacheControl(Header[] headers) {
+        CacheControl control = new CacheControl();
+        for (Header header : headers) {
+            for (HeaderElement element : header.getElements()) {
+                String name = element.getName().toLowerCase();
+                if ("no-store".equals(name)) {
+                    control.noStore = true;
+                } else if ("no-cache".equals(name)) {
+                    control.noCache = true;
+                } else if ("max-age".equals(name) && element.getValue() != null) {
+                    try {
+                        control.maxAge = Long.parseLong(element.getValue().trim());
+                    } catch (NumberFormatException e) {
+                        control.maxAge = 0;
+                    }
+                }
+            }
+        }
+        return control;
+    }
+
+    private long toExpiresAt(HttpResponse response) {
+        CacheControl control = parseCacheControl(response.getHeaders(HttpHeaders.CACHE_CONTROL));
+        long maxAgeMs = control.noCache ? 0 : Math.max(0, control.maxAge) * 1000;
+        return System.currentTimeMillis() + maxAgeMs;
+    }
+
+    private String headerValue(HttpResponse response, String name) {
+        Header header = response.getFirstHeader(name);
+        return header != null ? header.getValue() : null;
+    }
+
+    static class CacheControl {
+        boolean noStore;
+        boolean noCache;
+        long maxAge = -1;
+    }
+
+    private static class Entry {
+        private final Map<String,Object> body;
+        private final String etag;
+        private final String lastModified;
+        private final long expiresAt;
+
+        private Entry(Map<String,Object> body, String etag, String lastModified, long expiresAt) {
+            this.body = body;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -1,73 +1,269 @@
 package io.stardog.starwizard.services.http;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
+import io.dropwizard.lifecycle.Managed;
+import io.stardog.starwizard.services.http.data.BatchResult;
+import io.stardog.starwizard.services.http.data.FetchResult;
+import io.stardog.starwizard.services.http.exceptions.CircuitOpenException;
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.config.SocketConfig;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import javax.ws.rs.core.UriBuilder;
 import java.io.*;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
+/**
+ * HttpService is a thin wrapper around Apache HttpClient for making JSON requests to upstream APIs and fetching
+ * files.
+ *
+ * Every blocking method has a CompletableFuture-returning "Async" counterpart, backed by a non-blocking
+ * HttpAsyncClient. The async client shares the same ObjectMapper and request building as the blocking methods, and is
+ * created lazily on first use unless one is passed in. Register the service with the Dropwizard lifecycle so that
+ * the async client's I/O threads are shut down on stop.
+ */
 @Singleton
-public class HttpService {
+public class HttpService implements Managed {
     private final HttpClient httpClient;
     private final ObjectMapper mapper;
+    private final HttpClientConfig config;
+    private volatile CloseableHttpAsyncClient asyncClient;
+    private final boolean ownsHttpClient;
+    private final boolean ownsAsyncClient;
+    private final HttpConnectionPoolMonitor poolMonitor;
+    private final MetricRegistry metrics;
+    private final HttpResponseCache responseCache;
+    private final SingleFlight<String,Map<String,Object>> singleFlight;
+    private final ConcurrentMap<String,CircuitBreaker> breakers;
+    private final RetryPolicy retryPolicy;
+    private final RetryBudget retryBudget;
+    private final Meter breakerRejections;
+    private final Meter retries;
+    private final Counter retriesExhausted;
+    private final HttpClientMetrics clientMetrics;
     private final static Logger LOGGER = LoggerFactory.getLogger(HttpService.class);
+    private final static TypeReference<HashMap<String,Object>> MAP_TYPE = new TypeReference<HashMap<String,Object>>() {};
+    private final static TypeReference<ArrayList<Object>> LIST_TYPE = new TypeReference<ArrayList<Object>>() {};
+    private final static long DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
 
     @Inject
     public HttpService(HttpClient httpClient, ObjectMapper mapper) {
         this.httpClient = httpClient;
         this.mapper = mapper;
+        this.config = new HttpClientConfig();
+        this.ownsHttpClient = false;
+        this.ownsAsyncClient = true;
+        this.poolMonitor = null;
+        this.metrics = null;
+        this.responseCache = null;
+        this.singleFlight = null;
+        this.breakers = null;
+        this.retryPolicy = null;
+        this.retryBudget = null;
+        this.breakerRejections = new Meter();
+        this.retries = new Meter();
+        this.retriesExhausted = new Counter();
+        this.clientMetrics = null;
+    }
+
+    public HttpService(HttpClient httpClient, CloseableHttpAsyncClient asyncClient, ObjectMapper mapper) {
+        this.httpClient = httpClient;
+        this.asyncClient = asyncClient;
+        this.mapper = mapper;
+        this.config = new HttpClientConfig();
+        this.ownsHttpClient = false;
+        this.ownsAsyncClient = false;
+        this.poolMonitor = null;
+        this.metrics = null;
+        this.responseCache = null;
+        this.singleFlight = null;
+        this.breakers = null;
+        this.retryPolicy = null;
+        this.retryBudget = null;
+        this.breakerRejections = new Meter();
+        this.retries = new Meter();
+        this.retriesExhausted = new Counter();
+        this.clientMetrics = null;
+        if (!asyncClient.isRunning()) {
+            asyncClient.start();
+        }
     }
 
     public HttpService() {
-        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
+        this(new HttpClientConfig(), new ObjectMapper(), null);
+    }
+
+    /**
+     * Create an HttpService that owns its own connection pool, sized and timed according to the given config. Idle
+     * and expired connections are evicted in the background, and if a registry is passed, pool statistics are
+     * published as gauges. If the config sets a response cache size, getJson responses are cached and revalidated
+     * according to their Cache-Control and ETag/Last-Modified headers. If the config enables request coalescing,
+     * concurrent identical getJson calls share one upstream request, and each receives its own copy of the result.
+     *
+     * If the config enables circuit breaking, blocking requests and fetchFile run through a per-host circuit breaker,
+     * and throw CircuitOpenException while the host's breaker is open. If the config sets maxRetries, failed
+     * idempotent requests are retried with jittered exponential backoff, within a retry budget.
+     *
+     * If a registry is passed, every request is instrumented as described in HttpClientMetrics.
+     * @param config    pool and timeout config
+     * @param mapper    object mapper for requests and responses
+     * @param metrics   metric registry, or null to skip metrics
+     */
+    public HttpService(HttpClientConfig config, ObjectMapper mapper, @Nullable MetricRegistry metrics) {
+        this(config, mapper, metrics, config.getRetry().getMaxRetries() > 0
+                ? new ExponentialBackoffRetryPolicy(config.getRetry())
+                : null);
+    }
+
+    /**
+     * Create an HttpService as above, with a custom retry policy.
+     * @param config    pool and timeout config
+     * @param mapper    object mapper for requests and responses
+     * @param metrics   metric registry, or null to skip metrics
+     * @param retryPolicy   retry policy, or null to disable retries
+     */
+    public HttpService(HttpClientConfig config, ObjectMapper mapper, @Nullable MetricRegistry metrics,
+                       @Nullable RetryPolicy retryPolicy) {
+        PoolingHttpClientConnectionManager cm = HttpClientFactory.buildConnectionManager(config);
+        this.clientMetrics = metrics != null ? new HttpClientMetrics(metrics, config.getName(), config.getMaxRoutesPerHost()) : null;
+        this.httpClient = HttpClientFactory.buildHttpClient(config, cm, clientMetrics);
+        this.mapper = mapper;
+        this.config = config;
+        this.ownsHttpClient = true;
+        this.ownsAsyncClient = true;
+        this.poolMonitor = new HttpConnectionPoolMonitor(cm, config, metrics);
+        this.metrics = metrics;
+        this.responseCache = config.getResponseCacheSize() > 0
+                ? new HttpResponseCache(config.getResponseCacheSize(), config.getName(), metrics)
+                : null;
+        this.singleFlight = config.isCoalesceRequests()
+                ? new SingleFlight<>(counter("coalesced"), HttpResponseCache::copyOf)
+                : null;
+        this.breakers = config.getCircuitBreaker().isEnabled() ? new ConcurrentHashMap<>() : null;
+        this.retryPolicy = retryPolicy;
+        this.retryBudget = new RetryBudget(config.getRetry());
+        this.breakerRejections = meter("breaker", "rejected");
+        this.retries = meter("retries");
+        this.retriesExhausted = counter("retries", "budgetExhausted");
+    }
+
+    private Counter counter(String... names) {
+        return metrics != null ? metrics.counter(MetricRegistry.name(MetricRegistry.name("http", config.getName()), names)) : new Counter();
+    }
 
-        // set SSL timeout http://stackoverflow.com/questions/9925113/httpclient-stuck-without-any-exception
-        SocketConfig sc = SocketConfig.custom()
-                .setSoTimeout(60000)
-                .build();
-        cm.setDefaultSocketConfig(sc);
+    private Meter meter(String... names) {
+        return metrics != null ? metrics.meter(MetricRegistry.name(MetricRegistry.name("http", config.getName()), names)) : new Meter();
+    }
 
-        this.httpClient = HttpClientBuilder.create()
-                .disableAutomaticRetries()
-                .setConnectionManager(cm)
-                .build();
+    @Override
+    public void start() throws Exception {
+        if (poolMonitor != null) {
+            poolMonitor.start();
+        }
+    }
 
-        mapper = new ObjectMapper();
+    @Override
+    public void stop() throws Exception {
+        if (poolMonitor != null) {
+            poolMonitor.close();
+        }
+        CloseableHttpAsyncClient client = asyncClient;
+        if (ownsAsyncClient && client != null) {
+            client.close();
+        }
+        if (ownsHttpClient && httpClient instanceof Closeable) {
+            ((Closeable)httpClient).close();
+        }
     }
 
     public HttpClient getHttpClient() {
         return httpClient;
     }
 
+    /**
+     * Return the non-blocking client used by the async methods, creating and starting it on first use.
+     * @return  running async client
+     */
+    public CloseableHttpAsyncClient getAsyncClient() {
+        CloseableHttpAsyncClient client = asyncClient;
+        if (client == null) {
+            synchronized (this) {
+                client = asyncClient;
+                if (client == null) {
+                    client = HttpClientFactory.buildAsyncClient(config);
+                    client.start();
+                    asyncClient = client;
+                }
+            }
+        }
+        return client;
+    }
+
     public ObjectMapper getMapper() {
         return mapper;
     }
 
+    /**
+     * @return  coalescer for concurrent identical GETs, or empty if request coalescing is not configured
+     */
+    public Optional<SingleFlight<String,Map<String,Object>>> getSingleFlight() {
+        return Optional.ofNullable(singleFlight);
+    }
+
+    /**
+     * @return  the GET response cache, or empty if response caching is not configured
+     */
+    public Optional<HttpResponseCache> getResponseCache() {
+        return Optional.ofNullable(responseCache);
+    }
+
     public void fetchFile(URI url, File localFile) {
         fetchFile(httpClient, new HttpGet(url), localFile);
     }
@@ -76,41 +272,157 @@ public class HttpService {
         LOGGER.info("Downloading " + request.getURI());
         try {
             localFile.createNewFile();
-            FileOutputStream out = new FileOutputStream(localFile);
 
-            HttpResponse response = httpClient.execute(request);
+            HttpResponse response = execute(httpClient, request);
             if (response.getStatusLine().getStatusCode() < 200 || response.getStatusLine().getStatusCode() >= 300) {
                 EntityUtils.consumeQuietly(response.getEntity());
                 throw new IOException("Unable to fetch from " + request.getURI() + ", status code " + response.getStatusLine());
             }
 
-            response.getEntity().writeTo(out);
-            EntityUtils.consumeQuietly(response.getEntity());
+            try (FileOutputStream out = new FileOutputStream(localFile)) {
+                response.getEntity().writeTo(out);
+            } finally {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public FetchResult fetchFileParallel(URI url, File localFile, int parallelism) {
+        return fetchFileParallel(url, localFile, parallelism, DEFAULT_CHUNK_SIZE);
+    }
 
+    /**
+     * Download a large file using parallel HTTP Range requests, resuming a previously interrupted download of the
+     * same file where possible. If the server does not honour byte ranges, falls back to a single stream. Each
+     * request goes through the host's circuit breaker and the retry policy, if configured.
+     * @param url   url to download
+     * @param localFile local file to write to; replaced only once the download is complete
+     * @param parallelism   maximum number of concurrent range requests
+     * @param chunkSize size in bytes of each range request
+     * @return  size, transfer and throughput information for the download
+     */
+    public FetchResult fetchFileParallel(URI url, File localFile, int parallelism, long chunkSize) {
+        LOGGER.info("Downloading " + url + " with up to " + parallelism + " parallel ranges");
+        try {
+            FetchResult result = new RangedFileFetcher(request -> execute(httpClient, request), parallelism, chunkSize)
+                    .fetch(url, localFile);
+            LOGGER.info("Downloaded " + result.getBytesTransferred() + " of " + result.getBytes() + " bytes from "
+                    + url + " in " + result.getElapsed().toMillis() + "ms (" + result.getBytesPerSecond() + " bytes/s)");
+            if (metrics != null) {
+                String prefix = MetricRegistry.name("http", config.getName(), "fetch");
+                metrics.meter(MetricRegistry.name(prefix, "bytes")).mark(result.getBytesTransferred());
+                metrics.timer(MetricRegistry.name(prefix, "duration"))
+                        .update(result.getElapsed().toNanos(), TimeUnit.NANOSECONDS);
+                metrics.histogram(MetricRegistry.name(prefix, "bytesPerSecond")).update(result.getBytesPerSecond());
+            }
+            return result;
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
     public Map<String,Object> getJson(URI uri) {
-        return requestJson(new HttpGet(uri));
+        return requestJsonGet(new HttpGet(uri));
     }
 
     public Map<String,Object> getJson(URI uri, Map<String,String> params, List<Header> headers) {
-        HttpGet get = new HttpGet(getUrl(uri, params));
-        for (Header h : headers) {
-            get.addHeader(h);
-        }
-        return requestJson(get);
+        return requestJsonGet(buildGet(uri, params, headers));
     }
 
     public Map<String,Object> postJson(URI uri, Object postData, List<Header> headers) {
-        HttpPost post = new HttpPost(uri);
-        post.setEntity(toJsonEntity(postData));
-        for (Header h : headers) {
-            post.addHeader(h);
+        return requestJson(buildPostJson(uri, toStreamingJsonEntity(postData), headers));
+    }
+
+    public CompletableFuture<Map<String,Object>> getJsonAsync(URI uri) {
+        return requestJsonAsync(new HttpGet(uri));
+    }
+
+    public CompletableFuture<Map<String,Object>> getJsonAsync(URI uri, Map<String,String> params, List<Header> headers) {
+        return requestJsonAsync(buildGet(uri, params, headers));
+    }
+
+    public CompletableFuture<Map<String,Object>> postJsonAsync(URI uri, Object postData, List<Header> headers) {
+        // the async client pulls the body through getContent(), which a gzip-compressing entity does not support
+        return requestJsonAsync(buildPostJson(uri, toStreamingJsonEntity(postData, false), headers));
+    }
+
+    /**
+     * GET a batch of JSON resources, with at most parallelism requests in flight at once, waiting for all of them to
+     * complete. Requests run on the non-blocking client, so the calling thread is the only one blocked.
+     *
+     * Like the other async methods, batch requests do not go through the response cache, request coalescing, the
+     * circuit breakers or the retry policy: each uri is requested once, and a failure is reported in its result.
+     * @param uris  uris to fetch
+     * @param params    query params to add to every uri
+     * @param headers   headers to add to every request
+     * @param parallelism   maximum number of concurrent requests
+     * @return  one result per uri, in the same order as the uris; failed requests carry their error
+     */
+    public List<BatchResult<Map<String,Object>>> getJsonAll(List<URI> uris, Map<String,String> params,
+                                                           List<Header> headers, int parallelism) {
+        AtomicReferenceArray<BatchResult<Map<String,Object>>> results = new AtomicReferenceArray<>(uris.size());
+        getJsonAll(uris, params, headers, parallelism, r -> results.set(r.getIndex(), r));
+        List<BatchResult<Map<String,Object>>> list = new ArrayList<>(uris.size());
+        for (int i = 0; i < uris.size(); i++) {
+            list.add(results.get(i));
+        }
+        return list;
+    }
+
+    /**
+     * GET a batch of JSON resources, with at most parallelism requests in flight at once, passing each result to the
+     * callback as soon as it completes. Returns once every result has been delivered.
+     *
+     * The callback is invoked on the async client's I/O threads, possibly concurrently, so it should be quick and
+     * thread-safe. As above, requests bypass the cache, breakers and retries.
+     * @param uris  uris to fetch
+     * @param params    query params to add to every uri
+     * @param headers   headers to add to every request
+     * @param parallelism   maximum number of concurrent requests
+     * @param onResult  callback for each result, in completion order
+     */
+    public void getJsonAll(List<URI> uris, Map<String,String> params, List<Header> headers, int parallelism,
+                           Consumer<BatchResult<Map<String,Object>>> onResult) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism must be positive");
+        Semaphore permits = new Semaphore(parallelism);
+        CountDownLatch remaining = new CountDownLatch(uris.size());
+        try {
+            for (int i = 0; i < uris.size(); i++) {
+                permits.acquire();
+                int index = i;
+                URI uri = uris.get(i);
+                CompletableFuture<Map<String,Object>> future;
+                try {
+                    future = getJsonAsync(uri, params, headers);
+                } catch (RuntimeException e) {
+                    future = new CompletableFuture<>();
+                    future.completeExceptionally(e);
+                }
+                future.whenComplete((value, error) -> {
+                    try {
+                        if (error == null) {
+                            onResult.accept(BatchResult.success(index, uri, value));
+                        } else if (error instanceof CompletionException && error.getCause() != null) {
+                            onResult.accept(BatchResult.failure(index, uri, error.getCause()));
+                        } else {
+                            onResult.accept(BatchResult.failure(index, uri, error));
+                        }
+                    } catch (RuntimeException e) {
+                        LOGGER.warn("Batch result callback failed for " + uri, e);
+                    } finally {
+                        permits.release();
+                        remaining.countDown();
+                    }
+                });
+            }
+            remaining.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
         }
-        return requestJson(post);
     }
 
     public URI getUrl(URI baseUrl, Map<String,String> queryParams) {
@@ -124,6 +436,313 @@ public class HttpService {
     }
 
     public Map<String,Object> postUrlEncoded(URI uri, Map<String,String> params, List<Header> headers) {
+        return requestJson(buildPostUrlEncoded(uri, params, headers));
+    }
+
+    public CompletableFuture<Map<String,Object>> postUrlEncodedAsync(URI uri, Map<String,String> params, List<Header> headers) {
+        return requestJsonAsync(buildPostUrlEncoded(uri, params, headers));
+    }
+
+    public Map<String,Object> requestJson(HttpUriRequest request) {
+        return requestJson(this.httpClient, request);
+    }
+
+    public Map<String,Object> requestJson(HttpClient httpClient, HttpUriRequest request) {
+        try {
+            HttpResponse response = execute(httpClient, request);
+            return readJsonMap(response);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Execute a GET through the response cache and request coalescing, if either is configured.
+     * @param get   GET request
+     * @return  parsed response, possibly served from the cache or shared with a concurrent caller
+     */
+    private Map<String,Object> requestJsonGet(HttpGet get) {
+        if (responseCache == null && singleFlight == null) {
+            return requestJson(get);
+        }
+        String key = HttpResponseCache.toKey(get);
+        if (responseCache != null) {
+            Map<String,Object> cached = responseCache.lookup(key, get);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (singleFlight != null) {
+            return singleFlight.execute(key, () -> fetchJsonGet(key, get));
+        }
+        return fetchJsonGet(key, get);
+    }
+
+    private Map<String,Object> fetchJsonGet(String key, HttpGet get) {
+        if (responseCache == null) {
+            return requestJson(get);
+        }
+        try {
+            HttpResponse response = execute(httpClient, get);
+            if (response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                Map<String,Object> revalidated = responseCache.revalidated(key, response);
+                if (revalidated != null) {
+                    return revalidated;
+                }
+                // the entry was evicted while we were revalidating it, so ask again unconditionally
+                get.removeHeaders(HttpHeaders.IF_NONE_MATCH);
+                get.removeHeaders(HttpHeaders.IF_MODIFIED_SINCE);
+                response = execute(httpClient, get);
+            }
+            Map<String,Object> body = readJsonMap(response);
+            responseCache.store(key, response, body);
+            return body;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Execute a request and bind the JSON response directly to the given type, without going through an
+     * intermediate map.
+     * @param request   request to execute
+     * @param type  type to bind the response to
+     * @param <T>   type of the response
+     * @return  the bound response, or null if the response had no body
+     */
+    public <T> T requestJson(HttpUriRequest request, Class<T> type) {
+        return requestJson(this.httpClient, request, mapper.getTypeFactory().constructType(type));
+    }
+
+    /**
+     * Execute a request and bind the JSON response directly to the given generic type, without going through an
+     * intermediate map.
+     * @param request   request to execute
+     * @param type  type reference to bind the response to
+     * @param <T>   type of the response
+     * @return  the bound response, or null if the response had no body
+     */
+    public <T> T requestJson(HttpUriRequest request, TypeReference<T> type) {
+        return requestJson(this.httpClient, request, mapper.getTypeFactory().constructType(type));
+    }
+
+    private <T> T requestJson(HttpClient httpClient, HttpUriRequest request, JavaType type) {
+        try {
+            HttpResponse response = execute(httpClient, request);
+            return readJson(response, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Execute a request on the non-blocking client, completing with the parsed JSON response. The calling thread is
+     * never blocked; parsing happens on the client's I/O dispatcher thread once the response has arrived.
+     * @param request   request to execute
+     * @return  future of the parsed response; completes exceptionally with an UncheckedIOException on failure
+     */
+    public CompletableFuture<Map<String,Object>> requestJsonAsync(HttpUriRequest request) {
+        return executeAsync(request).thenApply(response -> {
+            try {
+                return readJsonMap(response);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    /**
+     * Execute a request on the non-blocking client, binding the JSON response directly to the given type.
+     * @param request   request to execute
+     * @param type  type to bind the response to
+     * @param <T>   type of the response
+     * @return  future of the bound response, which may complete with null if the response had no body
+     */
+    public <T> CompletableFuture<T> requestJsonAsync(HttpUriRequest request, Class<T> type) {
+        JavaType javaType = mapper.getTypeFactory().constructType(type);
+        return executeAsync(request).thenApply(response -> {
+            try {
+                return readJson(response, javaType);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private CompletableFuture<HttpResponse> executeAsync(HttpUriRequest request) {
+        CompletableFuture<HttpResponse> result = new CompletableFuture<>();
+        if (clientMetrics != null) {
+            clientMetrics.beforeRequest(request);
+        }
+        long start = System.nanoTime();
+        Future<HttpResponse> pending = getAsyncClient().execute(request, new FutureCallback<HttpResponse>() {
+            @Override
+            public void completed(HttpResponse response) {
+                if (clientMetrics != null) {
+                    clientMetrics.onResponse(request, response, System.nanoTime() - start);
+                }
+                result.complete(response);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                if (clientMetrics != null) {
+                    clientMetrics.onError(request, e, System.nanoTime() - start);
+                }
+                result.completeExceptionally(e instanceof IOException ? new UncheckedIOException((IOException)e) : e);
+            }
+
+            @Override
+            public void cancelled() {
+                result.cancel(false);
+            }
+        });
+        // propagate cancellation from the caller through to the in-flight exchange
+        result.whenComplete((response, e) -> {
+            if (result.isCancelled()) {
+                pending.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Execute a blocking request through the host's circuit breaker and the retry policy, if configured.
+     * @param httpClient    client to execute with
+     * @param request   request to execute
+     * @return  the final response
+     * @throws IOException  if the final attempt failed
+     * @throws CircuitOpenException if the host's circuit breaker is open
+     */
+    private HttpResponse execute(HttpClient httpClient, HttpUriRequest request) throws IOException {
+        if (breakers == null && retryPolicy == null) {
+            return executeOnce(httpClient, request);
+        }
+        String host = String.valueOf(request.getURI().getAuthority());
+        CircuitBreaker breaker = breakers != null ? breakerFor(host) : null;
+        if (retryPolicy != null) {
+            retryBudget.deposit();
+        }
+        for (int attempt = 0; ; attempt++) {
+            if (breaker != null && !breaker.allowRequest()) {
+                breakerRejections.mark();
+                throw new CircuitOpenException(host);
+            }
+
+            HttpResponse response = null;
+            IOException error = null;
+            try {
+                response = executeOnce(httpClient, request);
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                if (breaker != null) {
+                    breaker.onFailure();
+                }
+                throw e;
+            }
+            if (breaker != null) {
+                if (error != null || response.getStatusLine().getStatusCode() >= 500) {
+                    breaker.onFailure();
+                } else {
+                    breaker.onSuccess();
+                }
+            }
+
+            long delay = retryPolicy != null ? retryPolicy.retryDelayMillis(attempt, request, response, error) : -1;
+            if (delay >= 0 && !retryBudget.tryWithdraw()) {
+                retriesExhausted.inc();
+                delay = -1;
+            }
+            if (delay < 0) {
+                if (error != null) {
+                    throw error;
+                }
+                return response;
+            }
+
+            retries.mark();
+            LOGGER.warn("Retrying " + request.getMethod() + " " + request.getURI() + " in " + delay + "ms after "
+                    + (error != null ? error.toString() : response.getStatusLine().toString()));
+            if (response != null) {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry " + request.getURI());
+            }
+        }
+    }
+
+    /**
+     * Execute a single attempt of a request, recording its latency (up to the response headers), status and
+     * request size if instrumentation is configured.
+     */
+    private HttpResponse executeOnce(HttpClient httpClient, HttpUriRequest request) throws IOException {
+        if (poolMonitor != null) {
+            // services used outside the lifecycle start evicting on first use instead
+            poolMonitor.start();
+        }
+        if (clientMetrics == null) {
+            return httpClient.execute(request);
+        }
+        clientMetrics.beforeRequest(request);
+        long start = System.nanoTime();
+        try {
+            HttpResponse response = httpClient.execute(request);
+            clientMetrics.onResponse(request, response, System.nanoTime() - start);
+            return response;
+        } catch (IOException|RuntimeException e) {
+            clientMetrics.onError(request, e, System.nanoTime() - start);
+            throw e;
+        }
+    }
+
+    private CircuitBreaker breakerFor(String host) {
+        return breakers.computeIfAbsent(host, h -> {
+            CircuitBreaker breaker = new CircuitBreaker(config.getCircuitBreaker());
+            if (metrics != null) {
+                // 0 = closed, 1 = open, 2 = half-open
+                metrics.gauge(MetricRegistry.name("http", config.getName(), "breaker", h, "state"),
+                        () -> (Gauge<Integer>)() -> breaker.getState().ordinal());
+            }
+            return breaker;
+        });
+    }
+
+    /**
+     * @param host  host, including the port if not the default
+     * @return  state of the host's circuit breaker, or empty if circuit breaking is not configured
+     */
+    public Optional<CircuitBreaker.State> getCircuitBreakerState(String host) {
+        if (breakers == null) {
+            return Optional.empty();
+        }
+        CircuitBreaker breaker = breakers.get(host);
+        return Optional.of(breaker != null ? breaker.getState() : CircuitBreaker.State.CLOSED);
+    }
+
+    private HttpGet buildGet(URI uri, Map<String,String> params, List<Header> headers) {
+        HttpGet get = new HttpGet(getUrl(uri, params));
+        for (Header h : headers) {
+            get.addHeader(h);
+        }
+        return get;
+    }
+
+    private HttpPost buildPostJson(URI uri, HttpEntity entity, List<Header> headers) {
+        HttpPost post = new HttpPost(uri);
+        post.setEntity(entity);
+        for (Header h : headers) {
+            post.addHeader(h);
+        }
+        return post;
+    }
+
+    private HttpPost buildPostUrlEncoded(URI uri, Map<String,String> params, List<Header> headers) {
         try {
             HttpPost post = new HttpPost(uri);
             for (Header h : headers) {
@@ -133,36 +752,48 @@ public class HttpService {
                     .map(k -> new BasicNameValuePair(k, params.get(k)))
                     .collect(Collectors.toList());
             post.setEntity(new UrlEncodedFormEntity(paramPairs));
-            return requestJson(post);
+            return post;
         } catch (UnsupportedEncodingException e) {
             throw new RuntimeException(e);
         }
     }
 
-    public Map<String,Object> requestJson(HttpUriRequest request) {
-        return requestJson(this.httpClient, request);
-    }
-
-    public Map<String,Object> requestJson(HttpClient httpClient, HttpUriRequest request) {
-        try {
-            HttpResponse response = httpClient.execute(request);
-
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            if (response.getEntity() != null) {
-                response.getEntity().writeTo(out);
-                String json = out.toString("UTF-8");
-                if (json.startsWith("[")) {
-                    json = "{\"data\":" + json + "}";
-                }
-
-                return mapper.readValue(json, new TypeReference<HashMap<String, Object>>() {
-                });
-            } else {
+    /**
+     * Parse a JSON response body into a map, streaming straight from the entity rather than buffering the body.
+     * A top-level array is returned wrapped as {"data": [...]}.
+     * @param response  response to parse
+     * @return  parsed response, or an empty map if there was no body
+     * @throws IOException  if the body could not be read or parsed
+     */
+    private Map<String,Object> readJsonMap(HttpResponse response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return ImmutableMap.of();
+        }
+        try (InputStream in = entity.getContent(); JsonParser parser = mapper.getFactory().createParser(in)) {
+            JsonToken first = parser.nextToken();
+            if (first == null) {
                 return ImmutableMap.of();
             }
+            if (first == JsonToken.START_ARRAY) {
+                Map<String,Object> wrapped = new HashMap<>();
+                wrapped.put("data", mapper.readValue(parser, LIST_TYPE));
+                return wrapped;
+            }
+            return mapper.readValue(parser, MAP_TYPE);
+        }
+    }
 
-        } catch (IOException e) {
-            throw new UncheckedIOException(e);
+    private <T> T readJson(HttpResponse response, JavaType type) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+            return null;
+        }
+        try (InputStream in = entity.getContent(); JsonParser parser = mapper.getFactory().createParser(in)) {
+            if (parser.nextToken() == null) {
+                return null;
+            }
+            return mapper.readValue(parser, type);
         }
     }
 
@@ -174,4 +805,25 @@ public class HttpService {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Wrap an object as a JSON request entity, gzip-compressed if the config enables request compression.
+     * @param obj   object to serialize
+     * @return  entity that streams the object as application/json; charset=UTF-8
+     */
+    public HttpEntity toStreamingJsonEntity(Object obj) {
+        return toStreamingJsonEntity(obj, config.isGzipRequests());
+    }
+
+    /**
+     * Wrap an object as a JSON request entity. The object is serialized straight onto the request stream when the
+     * request is sent, rather than into an intermediate String.
+     * @param obj   object to serialize
+     * @param gzip  whether to gzip-compress the body
+     * @return  entity that streams the object as application/json; charset=UTF-8
+     */
+    public HttpEntity toStreamingJsonEntity(Object obj, boolean gzip) {
+        JsonEntity entity = new JsonEntity(mapper, obj);
+        return gzip ? new GzipCompressingEntity(entity) : entity;
+    }
 }
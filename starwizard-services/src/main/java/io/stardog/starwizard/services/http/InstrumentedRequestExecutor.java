@@ -0,0 +1,40 @@
+package io.stardog.starwizard.services.http;
+
+import com.codahale.metrics.Timer;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import java.io.IOException;
+
+/**
+ * A request executor that times each exchange on an established connection: sending the request and waiting for the
+ * response headers. This excludes pool lease and connection setup time.
+ */
+class InstrumentedRequestExecutor extends HttpRequestExecutor {
+    private final HttpClientMetrics metrics;
+
+    InstrumentedRequestExecutor(HttpClientMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context)
+            throws IOException, HttpException {
+        HttpHost target = HttpCoreContext.adapt(context).getTargetHost();
+        if (target == null) {
+            return super.execute(request, conn, context);
+        }
+        Timer.Context timer = metrics.serverTimer(target).time();
+        try {
+            return super.execute(request, conn, context);
+        } finally {
+            timer.stop();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package io.stardog.starwizard.services.http;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * An HTTP entity that serializes an object as UTF-8 JSON directly onto the request stream when it is sent, instead of
+ * building an intermediate String and byte array. The length is not known in advance, so the body is sent chunked.
+ *
+ * The entity is repeatable (each send serializes the object again), so it can be retried. getContent() is supported
+ * for clients that pull rather than push the body, but does buffer the full serialized value.
+ */
+public class JsonEntity extends AbstractHttpEntity {
+    private final ObjectMapper mapper;
+    private final Object value;
+
+    public JsonEntity(ObjectMapper mapper, Object value) {
+        this.mapper = mapper;
+        this.value = value;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return new ByteArrayInputStream(mapper.writeValueAsBytes(value));
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        // the client owns the output stream, so it must not be closed by the generator
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            mapper.writeValue(generator, value);
+        }
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
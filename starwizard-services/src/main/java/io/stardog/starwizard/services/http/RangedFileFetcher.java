@@ -0,0 +1,274 @@
+package io.stardog.starwizard.services.http;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.stardog.starwizard.services.http.data.FetchResult;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a file as a set of parallel HTTP Range requests, each written into a pre-sized file with positional
+ * FileChannel writes. The file's length and validator come from a GET for its first byte, rather than a HEAD, which
+ * presigned URLs usually reject. If the server does not honour the range, its full response is streamed instead.
+ *
+ * While downloading, data goes to {file}.part and completed chunk numbers are appended to {file}.progress. If a
+ * download is interrupted, the next attempt re-requests only the missing chunks -- provided the remote length and
+ * validator (ETag or Last-Modified) are unchanged. The .part file is renamed into place once every chunk is written.
+ */
+class RangedFileFetcher {
+    /**
+     * Executes a single request, so that HttpService can run every probe and range request through its circuit
+     * breaker and retry policy.
+     */
+    interface RequestExecutor {
+        HttpResponse execute(HttpUriRequest request) throws IOException;
+    }
+
+    private final RequestExecutor executor;
+    private final int parallelism;
+    private final long chunkSize;
+    private final static int BUFFER_SIZE = 64 * 1024;
+    private final static Logger LOGGER = LoggerFactory.getLogger(RangedFileFetcher.class);
+
+    RangedFileFetcher(RequestExecutor executor, int parallelism, long chunkSize) {
+        if (parallelism < 1 || chunkSize < 1) {
+            throw new IllegalArgumentException("parallelism and chunkSize must be positive");
+        }
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+    }
+
+    FetchResult fetch(URI url, File localFile) throws IOException {
+        long start = System.nanoTime();
+
+        // probe with a one-byte range rather than a HEAD, since presigned URLs are only signed for GET
+        HttpGet probe = new HttpGet(url);
+        probe.addHeader(HttpHeaders.RANGE, "bytes=0-0");
+        HttpResponse head = executor.execute(probe);
+        int status = head.getStatusLine().getStatusCode();
+        if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+            // an empty file has no first byte
+            EntityUtils.consumeQuietly(head.getEntity());
+            long bytes = fetchSingle(url, localFile, executor.execute(new HttpGet(url)));
+            return FetchResult.of(bytes, bytes, elapsedSince(start), false);
+        }
+        if (status != HttpStatus.SC_PARTIAL_CONTENT) {
+            // the server ignored the range and is sending the whole file, so keep it
+            long bytes = fetchSingle(url, localFile, head);
+            return FetchResult.of(bytes, bytes, elapsedSince(start), false);
+        }
+        EntityUtils.consumeQuietly(head.getEntity());
+        long length = parseTotalLength(head.getFirstHeader(HttpHeaders.CONTENT_RANGE));
+        if (length <= 0) {
+            long bytes = fetchSingle(url, localFile, executor.execute(new HttpGet(url)));
+            return FetchResult.of(bytes, bytes, elapsedSince(start), false);
+        }
+
+        String validator = toValidator(head);
+        File partFile = new File(localFile.getPath() + ".part");
+        File progressFile = new File(localFile.getPath() + ".progress");
+        String progressHeader = length + " " + chunkSize + " " + (validator != null ? validator : "-");
+        int chunkCount = (int)((length + chunkSize - 1) / chunkSize);
+
+        BitSet done = readProgress(progressFile, progressHeader);
+        if (done == null) {
+            done = new BitSet(chunkCount);
+            Files.deleteIfExists(partFile.toPath());
+            Files.write(progressFile.toPath(), (progressHeader + "\n").getBytes(StandardCharsets.UTF_8));
+        } else {
+            LOGGER.info("Resuming " + url + " with " + done.cardinality() + " of " + chunkCount + " chunks already present");
+        }
+
+        AtomicLong transferred = new AtomicLong();
+        try (FileChannel channel = FileChannel.open(partFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+             Writer progress = Files.newBufferedWriter(progressFile.toPath(), StandardCharsets.UTF_8,
+                     StandardOpenOption.APPEND)) {
+            // pre-size the file so that every chunk can be written at its own position
+            if (channel.size() > length) {
+                channel.truncate(length);
+            } else if (channel.size() < length) {
+                channel.write(ByteBuffer.allocate(1), length - 1);
+            }
+
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(parallelism, chunkCount),
+                    new ThreadFactoryBuilder().setNameFormat("fetch-chunk-%d").setDaemon(true).build());
+            try {
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = done.nextClearBit(0); i < chunkCount; i = done.nextClearBit(i + 1)) {
+                    int chunk = i;
+                    long from = chunk * chunkSize;
+                    long to = Math.min(length, from + chunkSize) - 1;
+                    futures.add(pool.submit(() -> {
+                        transferred.addAndGet(fetchChunk(url, validator, channel, from, to));
+                        synchronized (progress) {
+                            progress.write(chunk + "\n");
+                            progress.flush();
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> f : futures) {
+                    f.get();
+                }
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException)cause;
+                }
+                throw new IOException("Failed to fetch chunk of " + url, cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while fetching " + url);
+            } finally {
+                pool.shutdownNow();
+            }
+            channel.force(false);
+        }
+
+        Files.move(partFile.toPath(), localFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(progressFile.toPath());
+        return FetchResult.of(length, transferred.get(), elapsedSince(start), true);
+    }
+
+    private long fetchChunk(URI url, String validator, FileChannel channel, long from, long to) throws IOException {
+        HttpGet get = new HttpGet(url);
+        get.addHeader(HttpHeaders.RANGE, "bytes=" + from + "-" + to);
+        if (validator != null && !validator.startsWith("W/")) {
+            get.addHeader(HttpHeaders.IF_RANGE, validator);
+        }
+        HttpResponse response = executor.execute(get);
+        try {
+            if (response.getStatusLine().getStatusCode() != 206) {
+                throw new IOException("Expected partial content for range " + from + "-" + to + " of " + url
+                        + ", got " + response.getStatusLine());
+            }
+            long position = from;
+            try (ReadableByteChannel in = Channels.newChannel(response.getEntity().getContent())) {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                    buffer.clear();
+                }
+            }
+            if (position != to + 1) {
+                throw new IOException("Short read for range " + from + "-" + to + " of " + url + ", got "
+                        + (position - from) + " bytes");
+            }
+            return position - from;
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
+    }
+
+    /**
+     * Stream a whole-file response to {file}.part, then rename it into place.
+     */
+    private long fetchSingle(URI url, File localFile, HttpResponse response) throws IOException {
+        File partFile = new File(localFile.getPath() + ".part");
+        try {
+            checkStatus(url, response);
+            try (OutputStream out = new FileOutputStream(partFile)) {
+                response.getEntity().writeTo(out);
+            }
+        } finally {
+            EntityUtils.consumeQuietly(response.getEntity());
+        }
+        long bytes = partFile.length();
+        Files.move(partFile.toPath(), localFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        Files.deleteIfExists(new File(localFile.getPath() + ".progress").toPath());
+        return bytes;
+    }
+
+    /**
+     * Read the completed chunks from a progress file, if it exists and was written for the same remote file.
+     * @return  completed chunks, or null if there is nothing to resume
+     */
+    private BitSet readProgress(File progressFile, String expectedHeader) throws IOException {
+        if (!progressFile.exists()) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(progressFile.toPath(), StandardCharsets.UTF_8);
+        if (lines.isEmpty() || !lines.get(0).equals(expectedHeader)) {
+            return null;
+        }
+        BitSet done = new BitSet();
+        for (String line : lines.subList(1, lines.size())) {
+            if (!line.isEmpty()) {
+                done.set(Integer.parseInt(line));
+            }
+        }
+        return done;
+    }
+
+    private void checkStatus(URI url, HttpResponse response) throws IOException {
+        int status = response.getStatusLine().getStatusCode();
+        if (status < 200 || status >= 300) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            throw new IOException("Unable to fetch from " + url + ", status code " + response.getStatusLine());
+        }
+    }
+
+    /**
+     * @param header    Content-Range header of a partial response, such as "bytes 0-0/1234"
+     * @return  total length of the file, or -1 if absent or unknown
+     */
+    static long parseTotalLength(Header header) {
+        if (header == null) {
+            return -1;
+        }
+        String value = header.getValue();
+        int slash = value.lastIndexOf('/');
+        if (slash < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.substring(slash + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private String toValidator(HttpResponse response) {
+        Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        if (etag != null) {
+            return etag.getValue();
+        }
+        Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        return lastModified != null ? lastModified.getValue() : null;
+    }
+
+    private Duration elapsedSince(long startNanos) {
+        return Duration.ofNanos(System.nanoTime() - startNanos);
+    }
+}
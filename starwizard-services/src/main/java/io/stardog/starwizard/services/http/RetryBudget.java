@@ -0,0 +1,34 @@
+package io.stardog.starwizard.services.http;
+
+/**
+ * Caps retries as a fraction of overall traffic, so that retries cannot multiply load on an upstream that is already
+ * failing. Each request deposits a fraction of a retry into the budget, and each retry withdraws a whole one. The
+ * balance starts at, and can never exceed, a small reserve.
+ */
+public class RetryBudget {
+    private final double ratio;
+    private final double maxBalance;
+    private double balance;
+
+    public RetryBudget(double ratio, int reserve) {
+        this.ratio = ratio;
+        this.maxBalance = Math.max(1, reserve);
+        this.balance = maxBalance;
+    }
+
+    public RetryBudget(RetryConfig config) {
+        this(config.getBudgetRatio(), config.getMinRetries());
+    }
+
+    public synchronized void deposit() {
+        balance = Math.min(maxBalance, balance + ratio);
+    }
+
+    public synchronized boolean tryWithdraw() {
+        if (balance < 1) {
+            return false;
+        }
+        balance -= 1;
+        return true;
+    }
+}
@@ -0,0 +1,85 @@
+package io.stardog.starwizard.services.http;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.dropwizard.util.Duration;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+
+/**
+ * Settings for retrying failed idempotent requests in HttpService. Retries back off exponentially with full jitter,
+ * and are limited by a budget: each request earns budgetRatio retries, plus a small reserve of minRetries so that
+ * low-traffic clients can still retry.
+ */
+public class RetryConfig {
+    @Min(0)
+    private int maxRetries = 0;
+
+    @NotNull
+    private Duration baseDelay = Duration.milliseconds(100);
+
+    @NotNull
+    private Duration maxDelay = Duration.seconds(2);
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double budgetRatio = 0.1;
+
+    @Min(0)
+    private int minRetries = 10;
+
+    /**
+     * @return  maximum retries for a single request, or 0 to disable retries
+     */
+    @JsonProperty
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    @JsonProperty
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    @JsonProperty
+    public Duration getBaseDelay() {
+        return baseDelay;
+    }
+
+    @JsonProperty
+    public void setBaseDelay(Duration baseDelay) {
+        this.baseDelay = baseDelay;
+    }
+
+    @JsonProperty
+    public Duration getMaxDelay() {
+        return maxDelay;
+    }
+
+    @JsonProperty
+    public void setMaxDelay(Duration maxDelay) {
+        this.maxDelay = maxDelay;
+    }
+
+    @JsonProperty
+    public double getBudgetRatio() {
+        return budgetRatio;
+    }
+
+    @JsonProperty
+    public void setBudgetRatio(double budgetRatio) {
+        this.budgetRatio = budgetRatio;
+    }
+
+    @JsonProperty
+    public int getMinRetries() {
+        return minRetries;
+    }
+
+    @JsonProperty
+    public void setMinRetries(int minRetries) {
+        this.minRetries = minRetries;
+    }
+}
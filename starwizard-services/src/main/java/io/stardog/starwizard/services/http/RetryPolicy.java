@@ -0,0 +1,21 @@
+package io.stardog.starwizard.services.http;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Decides whether, and after how long, a failed request should be retried.
+ */
+public interface RetryPolicy {
+    /**
+     * @param attempt   number of the attempt that just completed, starting at 0
+     * @param request   request that was executed
+     * @param response  response received, or null if the request failed with an exception
+     * @param error exception thrown, or null if a response was received
+     * @return  delay in milliseconds before retrying, or -1 to not retry
+     */
+    long retryDelayMillis(int attempt, HttpUriRequest request, @Nullable HttpResponse response, @Nullable IOException error);
+}
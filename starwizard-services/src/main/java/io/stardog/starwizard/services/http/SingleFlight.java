@@ -0,0 +1,129 @@
+package io.stardog.starwizard.services.http;
+
+import com.codahale.metrics.Counter;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
+
+/**
+ * Coalesces concurrent calls for the same key into a single execution. The first caller for a key runs the supplier;
+ * any caller arriving while it is still running waits for and receives the same result, or the same exception.
+ * Once the call completes the key is released, so later callers trigger a new execution.
+ *
+ * If the result is mutable, pass a copier so that each waiting caller receives its own copy rather than sharing the
+ * executing caller's instance. The executing caller keeps the original, and nothing is copied when nobody waited.
+ *
+ * @param <K>   key type
+ * @param <V>   result type
+ */
+public class SingleFlight<K,V> {
+    private final ConcurrentMap<K,Flight<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter coalesced;
+    private final UnaryOperator<V> copier;
+
+    /**
+     * One execution in progress. The waiter count is set to -1 when the execution finishes, so that callers arriving
+     * after that start a new execution instead of joining, and the executing caller knows how many copies to make.
+     */
+    private static class Flight<V> {
+        private final CompletableFuture<V> future = new CompletableFuture<>();
+        private final AtomicInteger waiters = new AtomicInteger();
+
+        boolean join() {
+            int n;
+            do {
+                n = waiters.get();
+                if (n < 0) {
+                    return false;
+                }
+            } while (!waiters.compareAndSet(n, n + 1));
+            return true;
+        }
+
+        int finish() {
+            return waiters.getAndSet(-1);
+        }
+    }
+
+    public SingleFlight() {
+        this(new Counter());
+    }
+
+    public SingleFlight(Counter coalesced) {
+        this(coalesced, UnaryOperator.identity());
+    }
+
+    /**
+     * @param coalesced counter of coalesced calls
+     * @param copier    copies the shared result for each waiting caller; only called when there are waiting callers
+     */
+    public SingleFlight(Counter coalesced, UnaryOperator<V> copier) {
+        this.coalesced = coalesced;
+        this.copier = copier;
+    }
+
+    /**
+     * @return  number of calls that were served by another caller's execution
+     */
+    public long getCoalescedCount() {
+        return coalesced.getCount();
+    }
+
+    public V execute(K key, Supplier<V> supplier) {
+        while (true) {
+            Flight<V> flight = new Flight<>();
+            Flight<V> existing = inFlight.putIfAbsent(key, flight);
+            if (existing == null) {
+                return lead(key, flight, supplier);
+            }
+            if (existing.join()) {
+                coalesced.inc();
+                // the completed value is a snapshot nobody modifies, so each waiter gets its own copy of it
+                return copier.apply(await(existing.future));
+            }
+            // the execution finished as this caller arrived, so release its key and start another
+            inFlight.remove(key, existing);
+        }
+    }
+
+    private V lead(K key, Flight<V> flight, Supplier<V> supplier) {
+        try {
+            V result = supplier.get();
+            // waiters copy from the completed value, so if there are any, hand them a copy taken before this caller
+            // can modify the result
+            int waiters = flight.finish();
+            flight.future.complete(waiters > 0 ? copier.apply(result) : result);
+            return result;
+        } catch (RuntimeException|Error e) {
+            flight.finish();
+            flight.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private V await(CompletableFuture<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CompletionException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new CompletionException(cause);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package io.stardog.starwizard.services.http.data;
+
+import com.google.auto.value.AutoValue;
+
+import javax.annotation.Nullable;
+import java.net.URI;
+
+/**
+ * The outcome of one request within a batch: either a value or the error that prevented it.
+ * @param <T>   result type
+ */
+@AutoValue
+public abstract class BatchResult<T> {
+    public abstract int getIndex();
+    public abstract URI getUri();
+    @Nullable
+    public abstract T getValue();
+    @Nullable
+    public abstract Throwable getError();
+
+    public boolean isSuccess() {
+        return getError() == null;
+    }
+
+    public static <T> BatchResult<T> success(int index, URI uri, T value) {
+        return new AutoValue_BatchResult<>(index, uri, value, null);
+    }
+
+    public static <T> BatchResult<T> failure(int index, URI uri, Throwable error) {
+        return new AutoValue_BatchResult<>(index, uri, null, error);
+    }
+}
@@ -0,0 +1,22 @@
+package io.stardog.starwizard.services.http.data;
+
+import com.google.auto.value.AutoValue;
+
+import java.time.Duration;
+
+@AutoValue
+public abstract class FetchResult {
+    public abstract long getBytes();
+    public abstract long getBytesTransferred();
+    public abstract Duration getElapsed();
+    public abstract boolean isRanged();
+
+    public long getBytesPerSecond() {
+        long millis = Math.max(1, getElapsed().toMillis());
+        return getBytesTransferred() * 1000 / millis;
+    }
+
+    public static FetchResult of(long bytes, long bytesTransferred, Duration elapsed, boolean isRanged) {
+        return new AutoValue_FetchResult(bytes, bytesTransferred, elapsed, isRanged);
+    }
+}
@@ -0,0 +1,14 @@
+package io.stardog.starwizard.services.http.exceptions;
+
+public class CircuitOpenException extends RuntimeException {
+    private final String host;
+
+    public CircuitOpenException(String host) {
+        super("Circuit breaker open for " + host);
+        this.host = host;
+    }
+
+    public String getHost() {
+        return host;
+    }
+}
@@ -1,6 +1,10 @@
 package io.stardog.starwizard.services.media.processors;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
 import io.stardog.starwizard.services.common.AsyncService;
+import io.stardog.starwizard.services.common.DurableTaskQueue;
 import io.stardog.starwizard.services.media.MediaUtil;
 import io.stardog.starwizard.services.media.data.ImageDimensions;
 import io.stardog.starwizard.services.media.data.ImageVersion;
@@ -10,28 +14,55 @@ import io.stardog.starwizard.services.media.interfaces.MediaStorage;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 /**
  * This is a simple image processor that does the processing in a local thread pool. This will work for most small
  * and medium scale usecases. For more robust processing, a different queue mechanism might be appropriate.
+ *
+ * Resizes run on the AsyncService "media" pool when one is configured, so a burst of uploads does not delay other
+ * async work. Each ImageMagick run and S3 upload takes a permit from the matching AsyncService resource limit, if set.
+ *
+ * When given a DurableTaskQueue, resizes are recorded in its journal instead, so that uploads which are still waiting
+ * to be resized when the app stops are finished after the next start rather than lost with their temp files.
  */
 @Singleton
 public class AsyncImageProcessor implements ImageProcessor {
     private final AsyncService asyncService;
     private final ImageResizer imageResizer;
     private final MediaStorage mediaStorage;
+    private final DurableTaskQueue taskQueue;
+    private final ObjectMapper objectMapper = new ObjectMapper();
     private final Logger LOG = LoggerFactory.getLogger(AsyncImageProcessor.class);
 
+    public final static String POOL = "media";
+    public final static String TASK_TYPE = "image.resize";
+
     @Inject
     public AsyncImageProcessor(AsyncService asyncService, ImageResizer imageResizer, MediaStorage mediaStorage) {
+        this(asyncService, imageResizer, mediaStorage, null);
+    }
+
+    public AsyncImageProcessor(AsyncService asyncService, ImageResizer imageResizer, MediaStorage mediaStorage,
+                               @Nullable DurableTaskQueue taskQueue) {
         this.asyncService = asyncService;
         this.imageResizer = imageResizer;
         this.mediaStorage = mediaStorage;
+        this.taskQueue = taskQueue;
+        if (taskQueue != null) {
+            taskQueue.register(TASK_TYPE, this::processTask);
+        }
     }
 
     @Override
@@ -41,7 +72,11 @@ public class AsyncImageProcessor implements ImageProcessor {
 
     @Override
     public void processImageAsync(File imageFile, String storagePath, Collection<ImageVersion> versions) {
-        asyncService.submit(() -> {
+        if (taskQueue != null) {
+            taskQueue.submit(TASK_TYPE, toTask(imageFile, storagePath, versions));
+            return;
+        }
+        asyncService.submit(POOL, () -> {
             try {
                 processImage(imageFile, storagePath, versions);
                 Files.delete(imageFile.toPath());
@@ -59,12 +94,60 @@ public class AsyncImageProcessor implements ImageProcessor {
         }
     }
 
+    private byte[] toTask(File imageFile, String storagePath, Collection<ImageVersion> versions) {
+        List<Map<String,Object>> versionList = versions.stream()
+                .map(v -> ImmutableMap.<String,Object>of(
+                        "name", v.getName(),
+                        "width", v.getWidth(),
+                        "height", v.getHeight(),
+                        "square", v.isSquare()))
+                .collect(Collectors.toList());
+        try {
+            return objectMapper.writeValueAsBytes(ImmutableMap.of(
+                    "file", imageFile.getPath(),
+                    "path", storagePath,
+                    "versions", versionList));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void processTask(byte[] task) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(task);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        File imageFile = new File(node.get("file").asText());
+        String storagePath = node.get("path").asText();
+        if (!imageFile.exists()) {
+            // deleted once every version was stored, so this is a replay of a task that had already finished
+            LOG.info("Skipping resize of " + storagePath + ", source file is already gone: " + imageFile);
+            return;
+        }
+        List<ImageVersion> versions = new ArrayList<>();
+        for (JsonNode v : node.get("versions")) {
+            versions.add(ImageVersion.of(v.get("name").asText(), v.get("width").asInt(), v.get("height").asInt(),
+                    v.get("square").asBoolean()));
+        }
+        processImage(imageFile, storagePath, versions);
+        try {
+            Files.delete(imageFile.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        LOG.info("Resized " + versions.size() + " versions for image: " + storagePath);
+    }
+
     private void processImage(File imageFile, String storagePath, ImageVersion version) {
         File versionFile = MediaUtil.toVersionFile(imageFile, version.getName());
         String versionPath = MediaUtil.toVersionPath(storagePath, version.getName());
 
-        imageResizer.resizeImage(imageFile, versionFile, version.getWidth(), version.getHeight(), version.isSquare());
-        mediaStorage.storeVersion(versionFile, versionPath);
+        asyncService.runWithPermit(AsyncService.RESOURCE_IMAGEMAGICK, () ->
+                imageResizer.resizeImage(imageFile, versionFile, version.getWidth(), version.getHeight(), version.isSquare()));
+        asyncService.runWithPermit(AsyncService.RESOURCE_S3, () ->
+                mediaStorage.storeVersion(versionFile, versionPath));
         versionFile.delete();
     }
 }
@@ -0,0 +1,96 @@
+package io.stardog.starwizard.services.parameter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+/**
+ * A ParameterService that layers fixed sources over an optional dynamic fallback. The fixed layers are checked in
+ * order, with earlier layers taking precedence, so each keeps its own lookup rules (env vars are case-insensitive);
+ * parameters found there are served with one map read per layer checked. Anything else goes to the fallback,
+ * typically an AwsSsmParameterService.
+ *
+ * For example, env vars overriding a local file overriding SSM:
+ *
+ *   new CompositeParameterService(
+ *       ImmutableList.of(MapParameterService.fromEnv("EXAMPLE_"), MapParameterService.fromProperties(localFile)),
+ *       ssmParameterService);
+ */
+public class CompositeParameterService implements ParameterService {
+    private final List<MapParameterService> layers;
+    private final ParameterService fallback;
+
+    /**
+     * @param layers    fixed sources, highest precedence first
+     * @param fallback  source for parameters not in any layer, or null for none
+     */
+    public CompositeParameterService(List<MapParameterService> layers, @Nullable ParameterService fallback) {
+        this.layers = ImmutableList.copyOf(layers);
+        this.fallback = fallback;
+    }
+
+    @Override
+    public Map<String,String> getParameters(Iterable<String> params) {
+        ImmutableMap.Builder<String,String> builder = ImmutableMap.builder();
+        ImmutableSet.Builder<String> missing = ImmutableSet.builder();
+        for (String param : ImmutableSet.copyOf(params)) {
+            String value = getFixed(param);
+            if (value != null) {
+                builder.put(param, value);
+            } else {
+                missing.add(param);
+            }
+        }
+        ImmutableSet<String> missingParams = missing.build();
+        if (fallback != null && !missingParams.isEmpty()) {
+            builder.putAll(fallback.getParameters(missingParams));
+        }
+        return builder.build();
+    }
+
+    @Override
+    public Optional<String> optParameter(String name) {
+        String value = getFixed(name);
+        if (value != null) {
+            return Optional.of(value);
+        }
+        return fallback != null ? fallback.optParameter(name) : Optional.empty();
+    }
+
+    /**
+     * Watch a parameter for changes. Parameters served from the fixed layers never change, so only parameters that
+     * come from the fallback are watched.
+     * @param name  parameter name
+     * @param listener  called with the new value
+     */
+    @Override
+    public void watch(String name, Consumer<String> listener) {
+        if (fallback != null && getFixed(name) == null) {
+            fallback.watch(name, listener);
+        }
+    }
+
+    @Override
+    public void unwatch(String name, Consumer<String> listener) {
+        if (fallback != null) {
+            fallback.unwatch(name, listener);
+        }
+    }
+
+    @Nullable
+    private String getFixed(String name) {
+        for (MapParameterService layer : layers) {
+            String value = layer.get(name);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,129 @@
+package io.stardog.starwizard.services.parameter;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * A ParameterService backed by a fixed, immutable map, loaded once. Lookups are a single hash map read, with no
+ * logging, so this is suitable for sources that never change while the app runs: an env var snapshot, or a local
+ * properties or JSON file for offline and dev use. An env var snapshot is case-insensitive, which it gets by storing
+ * lower-cased names and lower-casing each name looked up.
+ */
+public class MapParameterService implements ParameterService {
+    private final Map<String,String> parameters;
+    private final boolean isCaseInsensitive;
+
+    public MapParameterService(Map<String,String> parameters) {
+        this(parameters, false);
+    }
+
+    private MapParameterService(Map<String,String> parameters, boolean isCaseInsensitive) {
+        this.parameters = ImmutableMap.copyOf(parameters);
+        this.isCaseInsensitive = isCaseInsensitive;
+    }
+
+    /**
+     * Snapshot the current env vars that start with the prefix. Following the env var convention, EXAMPLE_STRIPE_API_KEY
+     * with the prefix "EXAMPLE_" becomes the parameter "stripe_api_key". Since env var names are upper case, lookups
+     * are case-insensitive, so EXAMPLE_STRIPEAPIKEY is found as "stripeApiKey".
+     * @param prefix    env var prefix
+     * @return  parameter service
+     */
+    public static MapParameterService fromEnv(String prefix) {
+        return fromEnv(prefix, System.getenv());
+    }
+
+    public static MapParameterService fromEnv(String prefix, Map<String,String> env) {
+        Map<String,String> parameters = new HashMap<>();
+        for (Map.Entry<String,String> e : env.entrySet()) {
+            if (e.getKey().startsWith(prefix) && e.getKey().length() > prefix.length()) {
+                parameters.put(e.getKey().substring(prefix.length()).toLowerCase(Locale.ROOT), e.getValue());
+            }
+        }
+        return new MapParameterService(parameters, true);
+    }
+
+    /**
+     * Load parameters from a Java properties file.
+     * @param file  properties file
+     * @return  parameter service
+     */
+    public static MapParameterService fromProperties(File file) {
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        ImmutableMap.Builder<String,String> builder = ImmutableMap.builder();
+        for (String name : properties.stringPropertyNames()) {
+            builder.put(name, properties.getProperty(name));
+        }
+        return new MapParameterService(builder.build());
+    }
+
+    /**
+     * Load parameters from a JSON file containing a single object of string values.
+     * @param file  JSON file
+     * @return  parameter service
+     */
+    public static MapParameterService fromJson(File file) {
+        try {
+            Map<String,String> parameters = new ObjectMapper().readValue(file, new TypeReference<Map<String,String>>() {});
+            return new MapParameterService(parameters);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public boolean contains(String name) {
+        return get(name) != null;
+    }
+
+    /**
+     * @return  all parameters
+     */
+    public Map<String,String> asMap() {
+        return parameters;
+    }
+
+    @Override
+    public Map<String,String> getParameters(Iterable<String> params) {
+        ImmutableMap.Builder<String,String> builder = ImmutableMap.builder();
+        for (String param : ImmutableSet.copyOf(params)) {
+            String value = get(param);
+            if (value != null) {
+                builder.put(param, value);
+            }
+        }
+        return builder.build();
+    }
+
+    @Override
+    public Optional<String> optParameter(String name) {
+        return Optional.ofNullable(get(name));
+    }
+
+    /**
+     * @param name  parameter name
+     * @return  parameter value, or null if there is none
+     */
+    @Nullable
+    String get(String name) {
+        return parameters.get(isCaseInsensitive ? name.toLowerCase(Locale.ROOT) : name);
+    }
+}
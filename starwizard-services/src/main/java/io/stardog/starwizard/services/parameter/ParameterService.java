@@ -2,6 +2,7 @@ package io.stardog.starwizard.services.parameter;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 
 public interface ParameterService {
     Map<String,String> getParameters(Iterable<String> params);
@@ -11,4 +12,21 @@ public interface ParameterService {
         return optParameter(name)
                 .orElseThrow(() -> new IllegalArgumentException("Unable to get required parameter: " + name));
     }
+
+    /**
+     * Register a listener to be called with the new value whenever a parameter changes, e.g. so that a client can be
+     * rebuilt when its secret is rotated. Implementations that cannot detect changes never call the listener.
+     * @param name  parameter name
+     * @param listener  called with the new value
+     */
+    default void watch(String name, Consumer<String> listener) {
+    }
+
+    /**
+     * Remove a listener previously registered with watch.
+     * @param name  parameter name
+     * @param listener  listener to remove
+     */
+    default void unwatch(String name, Consumer<String> listener) {
+    }
 }
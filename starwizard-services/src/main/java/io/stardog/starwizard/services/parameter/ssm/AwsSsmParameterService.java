@@ -1,23 +1,51 @@
 package io.stardog.starwizard.services.parameter.ssm;
 
+import com.amazonaws.AbortedException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.SdkClientException;
 import com.amazonaws.services.simplesystemsmanagement.AWSSimpleSystemsManagement;
 import com.amazonaws.services.simplesystemsmanagement.model.*;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import io.stardog.starwizard.services.parameter.MapParameterService;
 import io.stardog.starwizard.services.parameter.ParameterService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -28,42 +56,239 @@ import java.util.stream.Collectors;
  * "OFFLINE", which is usually better than returning an error.
  *
  * By convention, env vars are UPPERCASE_UNDERSCORE and SSM params are snake_case. Typically you would prefix
- * your env vars with "APPNAME_", and prefix the SSM parameters with "/env/appname"
+ * your env vars with "APPNAME_", and prefix the SSM parameters with "/env/appname". Env vars are read once, when the
+ * service is constructed.
  *
  * For example, you might set envPrefix to "EXAMPLE_" and ssmPrefix to "/prod/example/". When you request the parameter
  * "stripe_api_key", it will check to see if there is an EXAMPLE_STRIPE_API_KEY env var; if there isn't, it'll request
  * /prod/example/stripe_api_key from SSM.
+ *
+ * Parameters read through getCachedParameter are refreshed ahead of time: after the refresh interval, the next read
+ * returns the cached value and triggers a background reload. If SSM is failing or throttling, the last known value
+ * keeps being served until it is older than the max staleness, after which reads go to SSM synchronously again.
+ *
+ * Listeners registered with watch are notified by a background poller, which checks the Version of every watched
+ * parameter in batched GetParameters calls and only calls listeners when the value actually changed. Changes picked up
+ * by a background refresh are also delivered on the poller thread, and each change is delivered only once. Register the
+ * service with the Dropwizard lifecycle so that its background threads are stopped on shutdown.
  */
 @Singleton
-public class AwsSsmParameterService implements ParameterService {
+public class AwsSsmParameterService implements ParameterService, Managed {
     private final AWSSimpleSystemsManagement ssm;
     private final String ssmPrefix;
-    private final String envPrefix;
+    private final MapParameterService envOverrides;
     private final boolean isOffline;
     private final static String OFFLINE_PLACEHOLDER_STRING = "OFFLINE";
+    private final static Optional<String> OFFLINE_PLACEHOLDER = Optional.of(OFFLINE_PLACEHOLDER_STRING);
+    private final static Duration DEFAULT_REFRESH_INTERVAL = Duration.ofSeconds(300);
+    private final static Duration DEFAULT_MAX_STALENESS = Duration.ofHours(1);
+    private final static int DEFAULT_PARALLELISM = 4;
+    private final static Duration DEFAULT_WATCH_INTERVAL = Duration.ofSeconds(30);
+    private final static int BATCH_SIZE = 10;
+    private final static int MAX_THROTTLE_RETRIES = 5;
+    private final static long MIN_THROTTLE_DELAY_MS = 100;
+    private final static long MAX_THROTTLE_DELAY_MS = 5000;
     private final Logger LOGGER = LoggerFactory.getLogger(AwsSsmParameterService.class);
 
-    private LoadingCache<String,String> cache = CacheBuilder.newBuilder()
-            .maximumSize(1000)
-            .expireAfterWrite(300, TimeUnit.SECONDS)
-            .build(new CacheLoader<String, String>() {
-                @Override
-                public String load(String name) {
-                    return getParameter(name);
-                }
-            });
+    private final LoadingCache<String,String> cache;
+    private final ExecutorService executor;
+    private final ExecutorService batchExecutor;
+    private final Counter refreshes;
+    private final Counter refreshFailures;
+    private final Counter throttles;
+    private final Counter invalidParameters;
+    private final AtomicLong throttleDelayMs = new AtomicLong();
+    private final ScheduledExecutorService watchScheduler;
+    private final Duration watchInterval;
+    private final AtomicBoolean isWatching = new AtomicBoolean();
+    private final ConcurrentMap<String,List<Consumer<String>>> watchers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String,Long> versions = new ConcurrentHashMap<>();
+    private final Counter changes;
 
     @Inject
     public AwsSsmParameterService(AWSSimpleSystemsManagement ssm, @Named("ssmPrefix") String ssmPrefix,
                                   @Named("envPrefix") String envPrefix, @Named("ssmOffline") boolean isOffline) {
+        this(ssm, ssmPrefix, envPrefix, isOffline, DEFAULT_REFRESH_INTERVAL, DEFAULT_MAX_STALENESS, null);
+    }
+
+    /**
+     * @param ssm   SSM client
+     * @param ssmPrefix prefix for SSM parameter names
+     * @param envPrefix prefix for env var names
+     * @param isOffline whether to run in offline mode
+     * @param refreshInterval   how long after loading a cached parameter it is reloaded in the background
+     * @param maxStaleness  how long a cached parameter may still be served while refreshes keep failing
+     * @param metrics   registry for cache metrics, or null for none
+     */
+    public AwsSsmParameterService(AWSSimpleSystemsManagement ssm, String ssmPrefix, String envPrefix, boolean isOffline,
+                                  Duration refreshInterval, Duration maxStaleness, @Nullable MetricRegistry metrics) {
+        this(ssm, ssmPrefix, envPrefix, isOffline, refreshInterval, maxStaleness, DEFAULT_WATCH_INTERVAL,
+                DEFAULT_PARALLELISM, metrics);
+    }
+
+    /**
+     * @param ssm   SSM client
+     * @param ssmPrefix prefix for SSM parameter names
+     * @param envPrefix prefix for env var names
+     * @param isOffline whether to run in offline mode
+     * @param refreshInterval   how long after loading a cached parameter it is reloaded in the background
+     * @param maxStaleness  how long a cached parameter may still be served while refreshes keep failing
+     * @param watchInterval how often watched parameters are checked for changes
+     * @param parallelism   maximum number of concurrent SSM calls for batch fetches, and separately for background
+     *                      refreshes
+     * @param metrics   registry for cache metrics, or null for none
+     */
+    public AwsSsmParameterService(AWSSimpleSystemsManagement ssm, String ssmPrefix, String envPrefix, boolean isOffline,
+                                  Duration refreshInterval, Duration maxStaleness, Duration watchInterval,
+                                  int parallelism, @Nullable MetricRegistry metrics) {
         this.ssm = ssm;
         this.ssmPrefix = ssmPrefix;
-        this.envPrefix = envPrefix;
+        this.envOverrides = envPrefix != null
+                ? MapParameterService.fromEnv(envPrefix)
+                : new MapParameterService(ImmutableMap.of());
         this.isOffline = isOffline;
+        if (!envOverrides.asMap().isEmpty()) {
+            LOGGER.info("Parameters overridden by env vars: " + envOverrides.asMap().keySet());
+        }
+        this.executor = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+                .setNameFormat("ssm-%d")
+                .setDaemon(true)
+                .build());
+        // batches get their own threads, so that a getParameters call from a refresh or watch listener cannot wait on
+        // batches queued behind itself
+        this.batchExecutor = Executors.newFixedThreadPool(parallelism, new ThreadFactoryBuilder()
+                .setNameFormat("ssm-batch-%d")
+                .setDaemon(true)
+                .build());
+        this.refreshes = metrics != null ? metrics.counter(metricName("refreshes")) : new Counter();
+        this.refreshFailures = metrics != null ? metrics.counter(metricName("refreshFailures")) : new Counter();
+        this.throttles = metrics != null ? metrics.counter(metricName("throttles")) : new Counter();
+        this.invalidParameters = metrics != null ? metrics.counter(metricName("invalidParameters")) : new Counter();
+        this.changes = metrics != null ? metrics.counter(metricName("changes")) : new Counter();
+        this.watchInterval = watchInterval;
+        this.watchScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("ssm-watch-%d")
+                .setDaemon(true)
+                .build());
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(1000)
+                .refreshAfterWrite(refreshInterval.toMillis(), TimeUnit.MILLISECONDS)
+                .expireAfterWrite(maxStaleness.toMillis(), TimeUnit.MILLISECONDS)
+                .recordStats()
+                .build(new CacheLoader<String, String>() {
+                    @Override
+                    public String load(String name) {
+                        return getParameter(name);
+                    }
+
+                    @Override
+                    public ListenableFuture<String> reload(String name, String oldValue) {
+                        ListenableFutureTask<String> task = ListenableFutureTask.create(() -> refresh(name, oldValue));
+                        executor.execute(task);
+                        return task;
+                    }
+                });
+        if (metrics != null) {
+            // gauge() rather than register(), so that a second instance sharing the registry does not fail on startup
+            metrics.gauge(metricName("hits"), () -> (Gauge<Long>)() -> cache.stats().hitCount());
+            metrics.gauge(metricName("misses"), () -> (Gauge<Long>)() -> cache.stats().missCount());
+        }
+    }
+
+    /**
+     * @return  hit, miss and load statistics for the parameter cache
+     */
+    public CacheStats getCacheStats() {
+        return cache.stats();
+    }
+
+    public long getRefreshCount() {
+        return refreshes.getCount();
+    }
+
+    public long getRefreshFailureCount() {
+        return refreshFailures.getCount();
+    }
+
+    public long getThrottleCount() {
+        return throttles.getCount();
+    }
+
+    @Override
+    public void start() throws Exception {
+
+    }
+
+    @Override
+    public void stop() throws Exception {
+        watchScheduler.shutdownNow();
+        executor.shutdownNow();
+        batchExecutor.shutdownNow();
     }
 
     /**
-     * Return an individual parameter from the cache, reducing the number of calls to SSM.
+     * Register a listener for changes to a parameter. The first call starts the background poller. Parameters
+     * overridden by env vars, or any parameter in offline mode, never change.
+     * @param name  parameter name
+     * @param listener  called with the new value, on the poller thread, once per change
+     */
+    @Override
+    public void watch(String name, Consumer<String> listener) {
+        watchers.computeIfAbsent(name, k -> new CopyOnWriteArrayList<>()).add(listener);
+        if (!isOffline && isWatching.compareAndSet(false, true)) {
+            long intervalMs = watchInterval.toMillis();
+            watchScheduler.scheduleWithFixedDelay(this::pollWatched, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void unwatch(String name, Consumer<String> listener) {
+        watchers.computeIfPresent(name, (k, listeners) -> {
+            listeners.remove(listener);
+            return listeners.isEmpty() ? null : listeners;
+        });
+    }
+
+    /**
+     * Load every parameter under the SSM prefix into the cache, using a handful of paginated GetParametersByPath calls
+     * rather than one round trip per parameter. Afterwards getCachedParameter and getParameters are served from memory.
+     *
+     * Call this from your Application's run() method, before registering health checks, so that an instance does not
+     * report healthy until its configuration is loaded. Parameters overridden by env vars are skipped. Throttled pages
+     * are retried with the same backoff as batch fetches, so many instances starting at once do not fail on startup.
+     * @return  number of parameters loaded into the cache
+     */
+    public int warmUp() {
+        if (isOffline) {
+            return 0;
+        }
+        String path = ssmPrefix.length() > 1 && ssmPrefix.endsWith("/")
+                ? ssmPrefix.substring(0, ssmPrefix.length() - 1)
+                : ssmPrefix;
+        int count = 0;
+        String nextToken = null;
+        do {
+            GetParametersByPathRequest request = new GetParametersByPathRequest()
+                    .withPath(path)
+                    .withRecursive(true)
+                    .withWithDecryption(true)
+                    .withNextToken(nextToken);
+            GetParametersByPathResult result = withThrottleBackoff(path, () -> ssm.getParametersByPath(request));
+            for (Parameter p : result.getParameters()) {
+                if (!hasEnvOverride(toParameterName(p.getName()))) {
+                    store(p);
+                    count++;
+                }
+            }
+            nextToken = result.getNextToken();
+        } while (nextToken != null);
+        LOGGER.info("Preloaded " + count + " parameters from SSM path: " + path);
+        return count;
+    }
+
+    /**
+     * Return an individual parameter from the cache, reducing the number of calls to SSM. Once a cached value is older
+     * than the refresh interval, it is still returned immediately while a fresh value is loaded in the background.
      * @param name  parameter name
      * @return  parameter value
      */
@@ -76,15 +301,20 @@ public class AwsSsmParameterService implements ParameterService {
     }
 
     /**
-     * Given a number of parameters at once, reducing the number of individual calls to SSM.
+     * Given a number of parameters at once, reducing the number of individual calls to SSM. Parameters not already
+     * cached are requested in batches of 10 (the SSM limit), with the batches sent concurrently, and the results are
+     * added to the cache.
      * @param params    list of parameter names to return
      * @return  map of parameter name to parameter values. If any parameters are missing, they will be excluded.
      */
     public Map<String,String> getParameters(Iterable<String> params) {
         ImmutableMap.Builder<String,String> builder = ImmutableMap.builder();
-        for (String param : params) {
-            getEnvParameter(param)
-                    .ifPresent(v -> builder.put(param, v));
+        for (String param : ImmutableSet.copyOf(params)) {
+            Optional<String> value = getEnvParameter(param);
+            if (!value.isPresent()) {
+                value = Optional.ofNullable(cache.getIfPresent(param));
+            }
+            value.ifPresent(v -> builder.put(param, v));
         }
         Set<String> ssmNames = Sets.difference(ImmutableSet.copyOf(params), builder.build().keySet())
                 .stream().map(name -> ssmPrefix + name).collect(Collectors.toSet());
@@ -94,18 +324,29 @@ public class AwsSsmParameterService implements ParameterService {
                     builder.put(param, OFFLINE_PLACEHOLDER_STRING);
                 }
             } else {
-                List<String> ssmParams = new ArrayList<>(ssmNames);
-                // SSM only allows returning 10 parameters at a time, so do in groups of 10 if needed
-                for (int i=0; i < (ssmParams.size() + 9) / 10; i++) {
-                    List<String> batchParams = ssmParams.subList(i*10, Math.min(ssmParams.size(), (i+1)*10));
-                    GetParametersRequest request = new GetParametersRequest()
-                            .withNames(batchParams)
-                            .withWithDecryption(true);
-                    GetParametersResult result = ssm.getParameters(request);
+                List<List<String>> batches = Lists.partition(new ArrayList<>(ssmNames), BATCH_SIZE);
+                List<GetParametersResult> results = new ArrayList<>();
+                if (batches.size() == 1) {
+                    results.add(fetchBatch(batches.get(0)));
+                } else {
+                    List<Future<GetParametersResult>> futures = new ArrayList<>();
+                    for (List<String> batch : batches) {
+                        futures.add(batchExecutor.submit(() -> fetchBatch(batch)));
+                    }
+                    for (Future<GetParametersResult> future : futures) {
+                        results.add(await(future));
+                    }
+                }
+                LOGGER.info("Retrieved parameters from SSM: " + ssmNames);
+                for (GetParametersResult result : results) {
                     for (Parameter p : result.getParameters()) {
-                        builder.put(p.getName().replaceAll(ssmPrefix, ""), p.getValue());
+                        builder.put(toParameterName(p.getName()), p.getValue());
+                        store(p);
+                    }
+                    if (!result.getInvalidParameters().isEmpty()) {
+                        invalidParameters.inc(result.getInvalidParameters().size());
+                        LOGGER.warn("Parameters not found in SSM: " + result.getInvalidParameters());
                     }
-                    LOGGER.info("Retrieved parameters from SSM: " + batchParams);
                 }
             }
         }
@@ -141,23 +382,183 @@ public class AwsSsmParameterService implements ParameterService {
     }
 
     /**
-     * Return a parameter from environment vars, or the offline placeholder if offline, or empty if not in env vars
+     * Return a parameter from the env var snapshot, or the offline placeholder if offline, or empty if not in env vars
      * @param name  parameter name
      * @return  parameter value
      */
     private Optional<String> getEnvParameter(String name) {
-        if (envPrefix != null) {
-            String envName = envPrefix + name.toUpperCase();
-            String env = System.getenv(envName);
-            if (env != null) {
-                LOGGER.info("Retrieving parameter from env var: " + envName);
-                return Optional.of(env);
+        Optional<String> env = envOverrides.optParameter(name);
+        if (env.isPresent()) {
+            return env;
+        }
+        return isOffline ? OFFLINE_PLACEHOLDER : Optional.empty();
+    }
+
+    /**
+     * Check the versions of all watched parameters and notify listeners of any that changed.
+     */
+    private void pollWatched() {
+        try {
+            List<String> ssmNames = watchers.keySet().stream()
+                    .filter(name -> !hasEnvOverride(name))
+                    .map(name -> ssmPrefix + name)
+                    .collect(Collectors.toList());
+            for (List<String> batch : Lists.partition(ssmNames, BATCH_SIZE)) {
+                for (Parameter p : fetchBatch(batch).getParameters()) {
+                    if (store(p)) {
+                        notifyWatchers(toParameterName(p.getName()), p.getValue());
+                    }
+                }
             }
+            // this runs every watch interval, so only changes are logged at INFO
+            LOGGER.debug("Checked watched parameters in SSM: " + ssmNames);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Failed to poll watched parameters from SSM", e);
         }
-        if (isOffline) {
-            LOGGER.info("Offline mode, returning placeholder for: " + name);
-            return Optional.of(OFFLINE_PLACEHOLDER_STRING);
+    }
+
+    private void notifyWatchers(String name, String value) {
+        changes.inc();
+        LOGGER.info("Parameter changed in SSM: " + name);
+        for (Consumer<String> listener : watchers.getOrDefault(name, Collections.emptyList())) {
+            try {
+                listener.accept(value);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Parameter change listener failed for: " + name, e);
+            }
+        }
+    }
+
+    /**
+     * Put a parameter fetched from SSM into the cache, unless a newer version is already known. The version check and
+     * the cache write happen together, so concurrent fetches of the same parameter cannot roll it back.
+     * @param p SSM parameter
+     * @return  true if this replaced a different value that callers may already have seen
+     */
+    private boolean store(Parameter p) {
+        String name = toParameterName(p.getName());
+        long version = p.getVersion() != null ? p.getVersion() : 0;
+        AtomicBoolean changed = new AtomicBoolean();
+        versions.compute(name, (k, previous) -> {
+            if (previous != null && previous >= version) {
+                return previous;
+            }
+            String old = cache.asMap().put(name, p.getValue());
+            changed.set(old != null ? !old.equals(p.getValue()) : previous != null);
+            return version;
+        });
+        return changed.get();
+    }
+
+    /**
+     * Fetch a single batch of parameters, backing off if throttled.
+     * @param ssmNames  full SSM parameter names, at most 10
+     * @return  SSM result
+     */
+    private GetParametersResult fetchBatch(List<String> ssmNames) {
+        GetParametersRequest request = new GetParametersRequest()
+                .withNames(ssmNames)
+                .withWithDecryption(true);
+        return withThrottleBackoff(ssmNames, () -> ssm.getParameters(request));
+    }
+
+    /**
+     * Make an SSM call, retrying throttling errors with a delay that is shared by every call in flight: it doubles on
+     * each throttle and halves on each success, so concurrent calls back off together.
+     * @param description   what is being fetched, for logging
+     * @param call  SSM call
+     * @return  result of the call
+     */
+    private <T> T withThrottleBackoff(Object description, Supplier<T> call) {
+        for (int attempt = 0; ; attempt++) {
+            long delay = throttleDelayMs.get();
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay + ThreadLocalRandom.current().nextLong(delay / 2 + 1));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new AbortedException("Interrupted while backing off from SSM throttling", e);
+                }
+            }
+            try {
+                T result = call.get();
+                throttleDelayMs.updateAndGet(d -> d / 2 < MIN_THROTTLE_DELAY_MS ? 0 : d / 2);
+                return result;
+            } catch (AmazonServiceException e) {
+                if (!"ThrottlingException".equals(e.getErrorCode()) || attempt >= MAX_THROTTLE_RETRIES) {
+                    throw e;
+                }
+                throttles.inc();
+                long next = throttleDelayMs.updateAndGet(d -> Math.min(MAX_THROTTLE_DELAY_MS, Math.max(MIN_THROTTLE_DELAY_MS, d * 2)));
+                LOGGER.warn("Throttled by SSM, retrying in " + next + "ms: " + description);
+            }
+        }
+    }
+
+    private <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while fetching parameters from SSM", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            }
+            throw new SdkClientException("Failed to fetch parameters from SSM", e.getCause());
         }
-        return Optional.empty();
+    }
+
+    /**
+     * Reload a parameter in the background. Throwing here leaves the previous value in the cache, so callers keep
+     * getting the last known good value until it reaches the max staleness. A changed value is passed on to watchers
+     * on the poller thread, and is recorded with its version so the poller does not report the same change again.
+     * @param name  parameter name
+     * @param oldValue  currently cached value
+     * @return  fresh parameter value
+     */
+    private String refresh(String name, String oldValue) {
+        refreshes.inc();
+        try {
+            if (isOffline || hasEnvOverride(name)) {
+                return getParameter(name);
+            }
+            GetParameterRequest request = new GetParameterRequest()
+                    .withName(ssmPrefix + name)
+                    .withWithDecryption(true);
+            Parameter p = ssm.getParameter(request).getParameter();
+            if (store(p)) {
+                try {
+                    watchScheduler.execute(() -> notifyWatchers(name, p.getValue()));
+                } catch (RejectedExecutionException e) {
+                    // stopped, so there is nobody left to notify, but the new value is still stored
+                    LOGGER.debug("Not notifying watchers of change after stop: " + name);
+                }
+            }
+            // the poller may have stored a newer version meanwhile, which the reload must not roll back
+            String current = cache.asMap().get(name);
+            return current != null ? current : p.getValue();
+        } catch (RuntimeException e) {
+            refreshFailures.inc();
+            LOGGER.warn("Failed to refresh parameter, serving last known value: " + name, e);
+            throw e;
+        }
+    }
+
+    private static String metricName(String name) {
+        return MetricRegistry.name(AwsSsmParameterService.class, "cache", name);
+    }
+
+    /**
+     * Strip the SSM prefix from a full SSM parameter name.
+     * @param ssmName   full SSM parameter name
+     * @return  parameter name
+     */
+    private String toParameterName(String ssmName) {
+        return ssmName.startsWith(ssmPrefix) ? ssmName.substring(ssmPrefix.length()) : ssmName;
+    }
+
+    private boolean hasEnvOverride(String name) {
+        return envOverrides.contains(name);
     }
 }
@@ -0,0 +1,179 @@
+package io.stardog.starwizard.services.slack;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.dropwizard.lifecycle.Managed;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Suppresses repeats of the same message, so an error that fires thousands of times a minute produces a handful of
+ * Slack messages rather than a flood. Messages are compared by fingerprint: the text with numbers, hex strings, UUIDs
+ * and prefixed ids (like "cus_8fJ2kQ9x") masked out, so "Order 1234 failed" and "Order 5678 failed" count as the
+ * same message.
+ *
+ * The first occurrence of a fingerprint is passed to the sink immediately. Repeats within the window are counted, and
+ * every rollup interval a single summary is sent for each suppressed fingerprint, e.g.
+ * "Order 1234 failed (x 812 more in last 60s)". Fingerprints are held in a bounded, expiring cache, so memory stays
+ * flat however many distinct messages arrive.
+ *
+ * Counts for entries that expire or are evicted between rollups are not sent from the thread that happened to trigger
+ * the removal; they are handed off and sent with the next rollup, on the rollup thread.
+ *
+ * Typical use is in front of SlackDeliveryQueue, so that callers never wait on Slack:
+ *
+ *   SlackDeduplicator dedup = new SlackDeduplicator(slackDeliveryQueue);
+ *   dedup.send("Payment failed for order " + orderId);
+ */
+public class SlackDeduplicator implements Managed {
+    private final Consumer<String> sink;
+    private final Cache<String,Entry> entries;
+    private final Duration rollupInterval;
+    private final Counter suppressed;
+    private final Queue<Entry> removed = new ConcurrentLinkedQueue<>();
+    private ScheduledExecutorService scheduler;
+
+    private final static Pattern UUID = Pattern.compile(
+            "\\b[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}\\b");
+    private final static Pattern PREFIXED_ID = Pattern.compile("\\b[a-zA-Z]{2,8}_(?=[a-zA-Z]*\\d)[a-zA-Z0-9]{6,}\\b");
+    private final static Pattern HEX = Pattern.compile("\\b(0x)?(?=[a-fA-F]*\\d)[0-9a-fA-F]{8,}\\b");
+    private final static Pattern NUMBER = Pattern.compile("\\d+");
+    private final static Logger LOGGER = LoggerFactory.getLogger(SlackDeduplicator.class);
+
+    public SlackDeduplicator(Consumer<String> sink) {
+        this(sink, Duration.ofMinutes(10), Duration.ofSeconds(60), 1000, null);
+    }
+
+    public SlackDeduplicator(SlackDeliveryQueue queue) {
+        this(queue::send);
+    }
+
+    /**
+     * @param sink  where messages and rollups are sent
+     * @param window    how long after its first occurrence a message is suppressed
+     * @param rollupInterval    how often suppressed counts are reported
+     * @param maxFingerprints   maximum number of distinct messages tracked at once
+     * @param metrics   registry for the suppressed message counter, or null for none
+     */
+    public SlackDeduplicator(Consumer<String> sink, Duration window, Duration rollupInterval, int maxFingerprints,
+                             @Nullable MetricRegistry metrics) {
+        this.sink = sink;
+        this.rollupInterval = rollupInterval;
+        this.suppressed = metrics != null
+                ? metrics.counter(MetricRegistry.name(SlackDeduplicator.class, "suppressed"))
+                : new Counter();
+        this.entries = CacheBuilder.newBuilder()
+                .maximumSize(maxFingerprints)
+                .expireAfterWrite(window.toMillis(), TimeUnit.MILLISECONDS)
+                .<String,Entry>removalListener(n -> {
+                    // don't lose counts for entries that expire or are evicted between rollups, but leave sending
+                    // them to the rollup thread, since removals happen on whichever thread is calling send()
+                    if (n.getCause() != RemovalCause.REPLACED && n.getValue() != null && n.getValue().count.get() > 0) {
+                        removed.add(n.getValue());
+                    }
+                })
+                .build();
+    }
+
+    @Override
+    public synchronized void start() throws Exception {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("slack-dedup-%d")
+                .setDaemon(true)
+                .build());
+        long intervalMs = rollupInterval.toMillis();
+        scheduler.scheduleAtFixedRate(this::flush, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void stop() throws Exception {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        flush();
+    }
+
+    /**
+     * Send a message, unless the same message was sent recently.
+     * @param text  message text
+     */
+    public void send(String text) {
+        Entry entry = new Entry(text);
+        Entry existing = entries.asMap().putIfAbsent(fingerprint(text), entry);
+        if (existing == null) {
+            sink.accept(text);
+        } else {
+            existing.count.incrementAndGet();
+            suppressed.inc();
+        }
+    }
+
+    public long getSuppressedCount() {
+        return suppressed.getCount();
+    }
+
+    /**
+     * Send a rollup for every message that has been suppressed since the last one.
+     */
+    void flush() {
+        entries.cleanUp();
+        Entry entry;
+        while ((entry = removed.poll()) != null) {
+            rollup(entry);
+        }
+        for (Entry e : entries.asMap().values()) {
+            rollup(e);
+        }
+    }
+
+    private void rollup(Entry entry) {
+        int count = entry.count.getAndSet(0);
+        if (count > 0) {
+            try {
+                sink.accept(entry.text + " (x " + count + " more in last " + rollupInterval.getSeconds() + "s)");
+            } catch (RuntimeException e) {
+                LOGGER.warn("Failed to send rollup of suppressed Slack messages", e);
+            }
+        }
+    }
+
+    /**
+     * Normalize a message so that messages differing only in numbers or ids share a fingerprint.
+     * @param text  message text
+     * @return  fingerprint
+     */
+    static String fingerprint(String text) {
+        String s = UUID.matcher(text).replaceAll("<uuid>");
+        s = PREFIXED_ID.matcher(s).replaceAll("<id>");
+        s = HEX.matcher(s).replaceAll("<hex>");
+        return NUMBER.matcher(s).replaceAll("<n>");
+    }
+
+    private static class Entry {
+        private final String text;
+        private final AtomicInteger count = new AtomicInteger();
+
+        private Entry(String text) {
+            this.text = text;
+        }
+    }
+}
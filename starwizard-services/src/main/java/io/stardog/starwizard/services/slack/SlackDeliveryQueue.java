@@ -0,0 +1,331 @@
+package io.stardog.starwizard.services.slack;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import io.dropwizard.lifecycle.Managed;
+import io.stardog.starwizard.services.slack.data.SlackMessage;
+import io.stardog.starwizard.services.slack.data.SlackWebhook;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends Slack messages from a dedicated worker thread, so that callers never wait on Slack. Takes the same arguments
+ * as SlackService.send, and applies the same defaults and internal-only rewrite.
+ *
+ * Messages go into a bounded queue; when it is full, the oldest queued message is dropped to make room. The worker
+ * rate limits each webhook with a token bucket (by default 1 message per second, Slack's documented webhook limit),
+ * and when Slack responds with a 429 it pauses that webhook for the Retry-After period before trying again. A webhook
+ * that has to wait holds its messages in its own outbox while the worker keeps sending to the others, so one
+ * throttled webhook never delays the rest. Messages that pile up for the same webhook, channel and sender are
+ * coalesced into a single message, with the later messages added as attachments.
+ *
+ * When Slack is disabled, messages are only logged, so they skip the rate limiter.
+ *
+ * Register the queue with the Dropwizard lifecycle: the worker starts in start(), and stop() keeps delivering queued
+ * messages for up to the drain timeout. Messages sent after stop() are dropped with a warning.
+ */
+@Singleton
+public class SlackDeliveryQueue implements Managed {
+    private final SlackService slackService;
+    private final BlockingQueue<SlackMessage> queue;
+    private final int capacity;
+    private final Map<String,Outbox> outboxes = new LinkedHashMap<>();
+    private final AtomicInteger held = new AtomicInteger();
+    private final double permitsPerSecond;
+    private final int burst;
+    private final Duration drainTimeout;
+    private final Counter drops;
+    private final Counter failures;
+    private final Timer sendTimer;
+    private volatile boolean isRunning;
+    private volatile boolean isStopped;
+    private Thread worker;
+
+    private final static int DEFAULT_CAPACITY = 1000;
+    private final static int MAX_DRAIN = 100;
+    private final static int MAX_COALESCED = 20;
+    private final static int MAX_ATTEMPTS = 3;
+    private final static long DEFAULT_RETRY_AFTER_MS = 1000;
+    private final static Logger LOGGER = LoggerFactory.getLogger(SlackDeliveryQueue.class);
+
+    @Inject
+    public SlackDeliveryQueue(SlackService slackService) {
+        this(slackService, DEFAULT_CAPACITY, 1.0, 1, Duration.ofSeconds(5), null);
+    }
+
+    /**
+     * @param slackService  service used to build and post messages
+     * @param capacity  maximum number of queued messages
+     * @param permitsPerSecond  sustained messages per second per webhook
+     * @param burst maximum messages sent back-to-back to one webhook
+     * @param drainTimeout  how long stop() keeps delivering queued messages
+     * @param metrics   registry for queue metrics, or null for none
+     */
+    public SlackDeliveryQueue(SlackService slackService, int capacity, double permitsPerSecond, int burst,
+                              Duration drainTimeout, @Nullable MetricRegistry metrics) {
+        this.slackService = slackService;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.permitsPerSecond = permitsPerSecond;
+        this.burst = burst;
+        this.drainTimeout = drainTimeout;
+        if (metrics != null) {
+            metrics.gauge(MetricRegistry.name(SlackDeliveryQueue.class, "depth"), () -> (Gauge<Integer>)this::getQueueSize);
+            this.drops = metrics.counter(MetricRegistry.name(SlackDeliveryQueue.class, "drops"));
+            this.failures = metrics.counter(MetricRegistry.name(SlackDeliveryQueue.class, "failures"));
+            this.sendTimer = metrics.timer(MetricRegistry.name(SlackDeliveryQueue.class, "send"));
+        } else {
+            this.drops = new Counter();
+            this.failures = new Counter();
+            this.sendTimer = new Timer();
+        }
+    }
+
+    @Override
+    public synchronized void start() throws Exception {
+        if (worker != null) {
+            return;
+        }
+        isRunning = true;
+        isStopped = false;
+        worker = new Thread(this::run, "slack-delivery");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @Override
+    public synchronized void stop() throws Exception {
+        isStopped = true;
+        if (worker == null) {
+            return;
+        }
+        isRunning = false;
+        worker.join(drainTimeout.toMillis());
+        if (worker.isAlive()) {
+            worker.interrupt();
+            worker.join(1000);
+        }
+        if (getQueueSize() > 0) {
+            LOGGER.warn("Discarding " + getQueueSize() + " undelivered Slack messages on shutdown");
+        }
+        worker = null;
+    }
+
+    public void send(String webhookUrl, String channel, String username, String iconUrl, String text, @Nullable List<Map<String,Object>> attachments) {
+        enqueue(slackService.toMessage(webhookUrl, channel, username, iconUrl, text, attachments));
+    }
+
+    public void send(String webhookUrl, String channel, String text, @Nullable List<Map<String,Object>> attachments) {
+        enqueue(slackService.toMessage(webhookUrl, channel, text, attachments));
+    }
+
+    public void send(String text) {
+        SlackMessage message = slackService.toInternalMessage(text);
+        if (message != null) {
+            enqueue(message);
+        }
+    }
+
+    public void send(SlackMessage message) {
+        enqueue(slackService.route(message));
+    }
+
+    /**
+     * @return  messages not yet sent, both queued and held back by a webhook's rate limit
+     */
+    public int getQueueSize() {
+        return queue.size() + held.get();
+    }
+
+    public long getDropCount() {
+        return drops.getCount();
+    }
+
+    void enqueue(SlackMessage message) {
+        if (isStopped) {
+            drops.inc();
+            LOGGER.warn("Dropping Slack message sent after the delivery queue was stopped: " + message.getText());
+            return;
+        }
+        while (!queue.offer(message)) {
+            if (queue.poll() != null) {
+                drops.inc();
+            }
+        }
+    }
+
+    private void run() {
+        List<SlackMessage> batch = new ArrayList<>();
+        while (isRunning || !queue.isEmpty() || held.get() > 0) {
+            try {
+                long wait = deliverReady(System.currentTimeMillis());
+                SlackMessage first = queue.poll(Math.min(wait, 100), TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.clear();
+                batch.add(first);
+                queue.drainTo(batch, MAX_DRAIN - 1);
+                for (SlackMessage message : coalesce(batch, MAX_COALESCED)) {
+                    if (slackService.isEnabled()) {
+                        hold(message);
+                    } else {
+                        // only logged, so there is no limit to respect
+                        slackService.deliver(message);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                LOGGER.warn("Unexpected error in Slack delivery worker", e);
+            }
+        }
+    }
+
+    private void hold(SlackMessage message) {
+        Outbox outbox = outboxes.computeIfAbsent(message.getWebhook().getUrl(),
+                k -> new Outbox(new TokenBucket(permitsPerSecond, burst, System.currentTimeMillis())));
+        if (outbox.pending.size() >= capacity) {
+            // a webhook paused for long enough to fill its outbox loses its oldest messages, as the queue does
+            release(outbox);
+            drops.inc();
+        }
+        outbox.pending.add(message);
+        held.incrementAndGet();
+    }
+
+    /**
+     * Send the next held message for every webhook whose rate limit allows it, at most one each, so that a webhook
+     * that is paused or sending a long backlog never holds up the others.
+     * @param nowMs current time in milliseconds
+     * @return  milliseconds until another held message may be sent, or Long.MAX_VALUE if none are held
+     */
+    private long deliverReady(long nowMs) {
+        long next = Long.MAX_VALUE;
+        for (Outbox outbox : outboxes.values()) {
+            if (outbox.pending.isEmpty()) {
+                continue;
+            }
+            long wait = outbox.bucket.tryAcquire(nowMs);
+            if (wait == 0) {
+                deliver(outbox);
+                wait = outbox.pending.isEmpty() ? Long.MAX_VALUE : 0;
+            }
+            next = Math.min(next, wait);
+        }
+        return next;
+    }
+
+    private void deliver(Outbox outbox) {
+        SlackMessage message = outbox.pending.peek();
+        SlackService.DeliveryResult result;
+        try (Timer.Context ignored = sendTimer.time()) {
+            result = slackService.deliver(message);
+        } catch (RuntimeException e) {
+            failures.inc();
+            LOGGER.warn("Failed to deliver Slack message", e);
+            release(outbox);
+            return;
+        }
+        if (!result.isRateLimited()) {
+            if (result.getStatusCode() >= 400) {
+                failures.inc();
+                LOGGER.warn("Slack rejected message with status " + result.getStatusCode());
+            }
+            release(outbox);
+            return;
+        }
+
+        long retryAfterMs = result.getRetryAfterMs() > 0 ? result.getRetryAfterMs() : DEFAULT_RETRY_AFTER_MS;
+        outbox.bucket.pauseUntil(System.currentTimeMillis() + retryAfterMs);
+        if (++outbox.attempts >= MAX_ATTEMPTS) {
+            failures.inc();
+            LOGGER.warn("Dropping Slack message after being rate limited " + outbox.attempts + " times");
+            release(outbox);
+            return;
+        }
+        // the message stays at the head of its webhook's outbox until the pause is over
+        LOGGER.info("Rate limited by Slack, retrying in " + retryAfterMs + "ms");
+    }
+
+    private void release(Outbox outbox) {
+        outbox.pending.poll();
+        outbox.attempts = 0;
+        held.decrementAndGet();
+    }
+
+    /**
+     * Combine messages for the same webhook, channel and sender into single messages, keeping the order in which each
+     * group first appeared. The first message in a group keeps its text; each later one becomes an attachment.
+     * @param messages  queued messages
+     * @param maxPerMessage maximum number of queued messages to combine into one
+     * @return  messages to send
+     */
+    static List<SlackMessage> coalesce(List<SlackMessage> messages, int maxPerMessage) {
+        Map<SlackWebhook,List<SlackMessage>> groups = new LinkedHashMap<>();
+        for (SlackMessage m : messages) {
+            groups.computeIfAbsent(m.getWebhook(), k -> new ArrayList<>()).add(m);
+        }
+        List<SlackMessage> result = new ArrayList<>();
+        for (List<SlackMessage> group : groups.values()) {
+            for (List<SlackMessage> chunk : Lists.partition(group, maxPerMessage)) {
+                result.add(combine(chunk));
+            }
+        }
+        return result;
+    }
+
+    private static SlackMessage combine(List<SlackMessage> messages) {
+        SlackMessage first = messages.get(0);
+        if (messages.size() == 1) {
+            return first;
+        }
+        List<Map<String,Object>> attachments = new ArrayList<>();
+        if (first.getAttachments() != null) {
+            attachments.addAll(first.getAttachments());
+        }
+        for (SlackMessage m : messages.subList(1, messages.size())) {
+            if (m.getText() != null) {
+                attachments.add(ImmutableMap.<String,Object>of("text", m.getText()));
+            }
+            if (m.getAttachments() != null) {
+                attachments.addAll(m.getAttachments());
+            }
+        }
+        return first.toBuilder().attachments(attachments).build();
+    }
+
+    /**
+     * Messages waiting for one webhook's rate limit, in send order, along with that limit. Only the worker touches it.
+     */
+    private static class Outbox {
+        private final TokenBucket bucket;
+        private final Deque<SlackMessage> pending = new ArrayDeque<>();
+        /** times the message at the head has been rate limited */
+        private int attempts;
+
+        Outbox(TokenBucket bucket) {
+            this.bucket = bucket;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package io.stardog.starwizard.services.slack;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.stardog.starwizard.services.slack.data.SlackMessage;
+import io.stardog.starwizard.services.slack.data.SlackWebhook;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes a Slack webhook payload straight to the request stream. The webhook's constant fields arrive pre-encoded (see
+ * encodePrefix), and the text is escaped and UTF-8 encoded as it is written, so no intermediate String, byte array or
+ * Map is built for the message.
+ */
+class SlackPayloadEntity extends AbstractHttpEntity {
+    private final byte[] prefix;
+    private final SlackMessage message;
+
+    private final static ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private final static ObjectWriter ATTACHMENTS_WRITER = OBJECT_MAPPER.writer()
+            .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    private final static byte[] TEXT_FIELD = "\"text\":".getBytes(StandardCharsets.US_ASCII);
+    private final static byte[] ATTACHMENTS_FIELD = ",\"attachments\":".getBytes(StandardCharsets.US_ASCII);
+    private final static byte[] NULL = "null".getBytes(StandardCharsets.US_ASCII);
+    private final static byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * @param prefix    encoded constant fields for the message's webhook, from encodePrefix
+     * @param message   message
+     */
+    SlackPayloadEntity(byte[] prefix, SlackMessage message) {
+        this.prefix = prefix;
+        this.message = message;
+        setContentType(ContentType.APPLICATION_JSON.toString());
+    }
+
+    /**
+     * Encode the opening of the payload for a webhook, up to and including the comma before the text field.
+     * @param webhook   webhook
+     * @return  encoded bytes
+     */
+    static byte[] encodePrefix(SlackWebhook webhook) {
+        Map<String,Object> fields = new LinkedHashMap<>();
+        fields.put("username", webhook.getUsername());
+        if (webhook.getChannel() != null) {
+            fields.put("channel", webhook.getChannel());
+        }
+        if (webhook.getIconUrl() != null) {
+            fields.put("icon_url", webhook.getIconUrl());
+        }
+        try {
+            byte[] json = OBJECT_MAPPER.writeValueAsBytes(fields);
+            // replace the closing brace with a comma, ready for the text field
+            json[json.length - 1] = ',';
+            return json;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeTo(out);
+        return new ByteArrayInputStream(out.toByteArray());
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(prefix);
+        out.write(TEXT_FIELD);
+        if (message.getText() != null) {
+            writeJsonString(out, message.getText());
+        } else {
+            out.write(NULL);
+        }
+        if (message.getAttachments() != null) {
+            out.write(ATTACHMENTS_FIELD);
+            ATTACHMENTS_WRITER.writeValue(out, message.getAttachments());
+        }
+        out.write('}');
+        out.flush();
+    }
+
+    /**
+     * Write a string as a quoted, escaped JSON string in UTF-8.
+     * @param out   output
+     * @param s string
+     */
+    static void writeJsonString(OutputStream out, String s) throws IOException {
+        out.write('"');
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.write('\\');
+                out.write(c);
+            } else if (c < 0x20) {
+                out.write('\\');
+                switch (c) {
+                    case '\n':
+                        out.write('n');
+                        break;
+                    case '\r':
+                        out.write('r');
+                        break;
+                    case '\t':
+                        out.write('t');
+                        break;
+                    default:
+                        out.write('u');
+                        out.write('0');
+                        out.write('0');
+                        out.write(HEX[c >> 4]);
+                        out.write(HEX[c & 0xF]);
+                }
+            } else if (c < 0x80) {
+                out.write(c);
+            } else if (c < 0x800) {
+                out.write(0xC0 | (c >> 6));
+                out.write(0x80 | (c & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    out.write(0xF0 | (cp >> 18));
+                    out.write(0x80 | ((cp >> 12) & 0x3F));
+                    out.write(0x80 | ((cp >> 6) & 0x3F));
+                    out.write(0x80 | (cp & 0x3F));
+                } else {
+                    // unpaired surrogate, which has no UTF-8 encoding
+                    out.write('?');
+                }
+            } else {
+                out.write(0xE0 | (c >> 12));
+                out.write(0x80 | ((c >> 6) & 0x3F));
+                out.write(0x80 | (c & 0x3F));
+            }
+        }
+        out.write('"');
+    }
+}
@@ -1,15 +1,26 @@
 package io.stardog.starwizard.services.slack;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import io.dropwizard.util.Duration;
+import io.stardog.starwizard.services.http.HttpClientConfig;
+import io.stardog.starwizard.services.http.HttpClientFactory;
+import io.stardog.starwizard.services.http.HttpService;
+import io.stardog.starwizard.services.slack.data.SlackMessage;
+import io.stardog.starwizard.services.slack.data.SlackWebhook;
+import org.apache.http.Header;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.config.SocketConfig;
-import org.apache.http.entity.ContentType;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.impl.conn.ConnectionShutdownException;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,9 +31,11 @@ import javax.inject.Named;
 import javax.inject.Singleton;
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.util.HashMap;
+import java.net.URI;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * SlackService is a simple way to send notifications to an internal or external Slack channel using the "incoming
@@ -33,6 +46,9 @@ import java.util.Map;
  *
  * If you want to configure the service to send to Slack, but only ever send to an internal channel (useful
  * for dev / test environments), you can set isInternalOnly to true and optionally pass an internalPrefix.
+ *
+ * By default it sends through its own connection pool, configured by defaultHttpClientConfig. To share a pool, pass
+ * an HttpService or an HttpClient to one of the other constructors instead.
  */
 @Singleton
 public class SlackService {
@@ -44,8 +60,20 @@ public class SlackService {
     private final HttpClient httpClient;
     private final String internalPrefix;
     private final boolean isInternalOnly;
+    private final MetricRegistry metrics;
+    private final Meter reusedConnections;
+    private final Meter newConnections;
+    private final ConcurrentMap<String,Timer> sendTimers = new ConcurrentHashMap<>();
+
+    private final LoadingCache<SlackWebhook,byte[]> prefixes = CacheBuilder.newBuilder()
+            .maximumSize(100)
+            .build(CacheLoader.from(SlackPayloadEntity::encodePrefix));
 
-    private final static ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private final static RequestConfig REQUEST_CONFIG = RequestConfig.custom()
+            .setConnectionRequestTimeout(10 * 1000)
+            .setConnectTimeout(10 * 1000)
+            .setSocketTimeout(10 * 1000)
+            .build();
     private final static Logger LOGGER = LoggerFactory.getLogger(SlackService.class);
 
     @Inject
@@ -53,6 +81,30 @@ public class SlackService {
                         @Named("slackUsername") String defaultUsername, @Named("slackChannel") String internalChannel,
                         @Named("slackIconUrl") String defaultIconUrl, @Named("enableSlack") boolean isEnabled,
                         @Named("slackInternalOnly") boolean isInternalOnly, @Named("envPrefix") String internalPrefix) {
+        this(internalWebhookUrl, defaultUsername, internalChannel, defaultIconUrl, isEnabled, isInternalOnly,
+                internalPrefix, buildDefaultHttpClient(), null);
+    }
+
+    /**
+     * Send through an HttpService's client, sharing its connection pool, eviction and pool metrics. If Slack has its
+     * own HttpService, defaultHttpClientConfig is a reasonable starting point for its pool.
+     * @param httpService   service whose client to send with
+     * @param metrics   registry for per-webhook send timers and connection reuse meters, or null for none
+     */
+    public SlackService(String internalWebhookUrl, String defaultUsername, String internalChannel,
+                        String defaultIconUrl, boolean isEnabled, boolean isInternalOnly, String internalPrefix,
+                        HttpService httpService, @Nullable MetricRegistry metrics) {
+        this(internalWebhookUrl, defaultUsername, internalChannel, defaultIconUrl, isEnabled, isInternalOnly,
+                internalPrefix, httpService.getHttpClient(), metrics);
+    }
+
+    /**
+     * @param httpClient    client to send with
+     * @param metrics   registry for per-webhook send timers and connection reuse meters, or null for none
+     */
+    public SlackService(String internalWebhookUrl, String defaultUsername, String internalChannel,
+                        String defaultIconUrl, boolean isEnabled, boolean isInternalOnly, String internalPrefix,
+                        HttpClient httpClient, @Nullable MetricRegistry metrics) {
         this.internalWebhookUrl = internalWebhookUrl;
         this.internalChannel = internalChannel;
         this.defaultUsername = defaultUsername;
@@ -60,77 +112,254 @@ public class SlackService {
         this.isEnabled = isEnabled;
         this.isInternalOnly = isInternalOnly;
         this.internalPrefix = internalPrefix;
+        this.httpClient = httpClient;
+        this.metrics = metrics;
+        if (metrics != null) {
+            this.reusedConnections = metrics.meter(MetricRegistry.name(SlackService.class, "connections", "reused"));
+            this.newConnections = metrics.meter(MetricRegistry.name(SlackService.class, "connections", "new"));
+        } else {
+            this.reusedConnections = new Meter();
+            this.newConnections = new Meter();
+        }
+    }
 
-        PoolingHttpClientConnectionManager cm = new PoolingHttpClientConnectionManager();
-        // set SSL timeout http://stackoverflow.com/questions/9925113/httpclient-stuck-without-any-exception
-        SocketConfig sc = SocketConfig.custom()
-                .setSoTimeout(5000)
-                .build();
-        cm.setDefaultSocketConfig(sc);
-        this.httpClient = HttpClientBuilder.create()
-                .disableAutomaticRetries()
-                .setConnectionManager(cm)
-                .build();
+    /**
+     * Pool settings for the service's own pool, also suited to a client or HttpService used only for Slack. Webhook
+     * traffic comes in bursts to a single host, so a few connections are kept warm for a minute after each burst,
+     * saving a TLS handshake per message, and are not reused once they have been idle longer than that.
+     * @return  client config
+     */
+    public static HttpClientConfig defaultHttpClientConfig() {
+        HttpClientConfig config = new HttpClientConfig();
+        config.setName("slack");
+        config.setMaxConnections(10);
+        config.setMaxConnectionsPerRoute(5);
+        config.setKeepAlive(Duration.seconds(60));
+        config.setIdleTimeout(Duration.seconds(60));
+        config.setConnectTimeout(Duration.seconds(10));
+        config.setConnectionRequestTimeout(Duration.seconds(10));
+        config.setSocketTimeout(Duration.seconds(10));
+        return config;
+    }
+
+    private static HttpClient buildDefaultHttpClient() {
+        HttpClientConfig config = defaultHttpClientConfig();
+        return HttpClientFactory.buildHttpClient(config, HttpClientFactory.buildConnectionManager(config));
     }
 
     public void send(String webhookUrl, String channel, String username, String iconUrl, String text, @Nullable List<Map<String,Object>> attachments) {
-        try {
-            // in internal-only mode, send all slack messages to the internal webhook and channel -- never send externally
-            if (isInternalOnly && isEnabled) {
-                channel = internalChannel;
-                webhookUrl = internalWebhookUrl;
-                if (internalPrefix != null && text != null) {
-                    text = internalPrefix + text;
-                }
-            }
+        deliver(toMessage(webhookUrl, channel, username, iconUrl, text, attachments));
+    }
 
-            Map<String, Object> message = new HashMap<>();
-            message.put("username", username);
-            if (channel != null) {
-                message.put("channel", channel);
-            }
-            if (iconUrl != null) {
-                message.put("icon_url", iconUrl);
-            }
-            message.put("text", text);
-            if (attachments != null) {
-                message.put("attachments", attachments);
-            }
-            String messageJson = OBJECT_MAPPER.writeValueAsString(message);
-            if (!isEnabled) {
-                LOGGER.info("Skipping actual Slack send to " + channel + " of " + messageJson);
-                return;
-            }
+    public void send(String webhookUrl, String channel, String text, @Nullable List<Map<String,Object>> attachments) {
+        send(webhookUrl, channel, defaultUsername, defaultIconUrl, text, attachments);
+    }
+
+    public void send(String text) {
+        SlackMessage message = toInternalMessage(text);
+        if (message != null) {
+            deliver(message);
+        }
+    }
 
-            // mask full webhook url so it doesn't show in logs
-            LOGGER.info("Sending Slack message to webhook: " + webhookUrl.substring(0, 53) + "...");
+    /**
+     * Send a message built with SlackMessage.builder(). For high-volume paths, build the SlackWebhook once with
+     * webhook() and reuse it, so that its channel, username and icon are only encoded once.
+     * @param message   message
+     */
+    public void send(SlackMessage message) {
+        deliver(route(message));
+    }
 
-            RequestConfig config = RequestConfig.custom()
-                    .setConnectionRequestTimeout(10 * 1000)
-                    .setConnectTimeout(10 * 1000)
-                    .setSocketTimeout(10 * 1000)
-                    .build();
+    /**
+     * @param webhookUrl    webhook url
+     * @param channel   channel, or null for the webhook's default
+     * @return  webhook with the default username and icon
+     */
+    public SlackWebhook webhook(String webhookUrl, @Nullable String channel) {
+        return SlackWebhook.of(webhookUrl, channel, defaultUsername, defaultIconUrl);
+    }
 
-            HttpPost post = new HttpPost(webhookUrl);
-            post.setConfig(config);
-            post.setEntity(new StringEntity(messageJson, ContentType.APPLICATION_JSON));
-            HttpResponse response = httpClient.execute(post);
+    /**
+     * Build a message, applying the internal-only rewrite if it is configured.
+     */
+    SlackMessage toMessage(String webhookUrl, String channel, String username, String iconUrl, String text,
+                           @Nullable List<Map<String,Object>> attachments) {
+        return route(SlackMessage.builder()
+                .webhook(SlackWebhook.of(webhookUrl, channel, username, iconUrl))
+                .text(text)
+                .attachments(attachments)
+                .build());
+    }
 
-            EntityUtils.consumeQuietly(response.getEntity());
+    SlackMessage toMessage(String webhookUrl, String channel, String text, @Nullable List<Map<String,Object>> attachments) {
+        return toMessage(webhookUrl, channel, defaultUsername, defaultIconUrl, text, attachments);
+    }
+
+    /**
+     * Build a message for the internal channel.
+     * @param text  message text
+     * @return  message, or null if no internal channel is configured
+     */
+    @Nullable
+    SlackMessage toInternalMessage(String text) {
+        if (internalChannel == null || defaultUsername == null || "".equals(internalChannel) || "".equals(defaultUsername)) {
+            return null;
+        }
+        return toMessage(internalWebhookUrl, internalChannel, text, null);
+    }
+
+    /**
+     * In internal-only mode, send all slack messages to the internal webhook and channel -- never send externally.
+     * @param message   message
+     * @return  message to send
+     */
+    SlackMessage route(SlackMessage message) {
+        if (!isInternalOnly || !isEnabled) {
+            return message;
+        }
+        SlackWebhook webhook = message.getWebhook();
+        String text = message.getText();
+        return message.toBuilder()
+                .webhook(SlackWebhook.of(internalWebhookUrl, internalChannel, webhook.getUsername(), webhook.getIconUrl()))
+                .text(internalPrefix != null && text != null ? internalPrefix + text : text)
+                .build();
+    }
 
+    /**
+     * Post a message to its webhook on the calling thread.
+     * @param message   message
+     * @return  the outcome, including how long Slack asked us to back off if it rate limited the request
+     */
+    DeliveryResult deliver(SlackMessage message) {
+        SlackWebhook webhook = message.getWebhook();
+        if (!isEnabled) {
+            LOGGER.info("Skipping actual Slack send to " + webhook.getChannel() + " of " + message.getText());
+            return DeliveryResult.SKIPPED;
+        }
+
+        // mask full webhook url so it doesn't show in logs
+        LOGGER.info("Sending Slack message to webhook: " + webhook.getUrl().substring(0, 53) + "...");
+
+        HttpPost post = new HttpPost(webhook.getUrl());
+        post.setConfig(REQUEST_CONFIG);
+        post.setEntity(new SlackPayloadEntity(prefixes.getUnchecked(webhook), message));
+        HttpClientContext context = HttpClientContext.create();
+        try (Timer.Context ignored = sendTimer(webhook.getUrl()).time()) {
+            HttpResponse response = httpClient.execute(post, context);
+            try {
+                recordConnectionReuse(context);
+                return new DeliveryResult(response.getStatusLine().getStatusCode(), parseRetryAfter(response));
+            } finally {
+                EntityUtils.consumeQuietly(response.getEntity());
+            }
         } catch (IOException e) {
             throw new UncheckedIOException(e);
         }
     }
 
-    public void send(String webhookUrl, String channel, String text, @Nullable List<Map<String,Object>> attachments) {
-        send(webhookUrl, channel, defaultUsername, defaultIconUrl, text, attachments);
+    /**
+     * @return  whether messages are actually posted to Slack, rather than just logged
+     */
+    boolean isEnabled() {
+        return isEnabled;
     }
 
-    public void send(String text) {
-        if (internalChannel == null || defaultUsername == null || "".equals(internalChannel) || "".equals(defaultUsername)) {
+    public long getReusedConnectionCount() {
+        return reusedConnections.getCount();
+    }
+
+    public long getNewConnectionCount() {
+        return newConnections.getCount();
+    }
+
+    private Timer sendTimer(String webhookUrl) {
+        if (metrics == null) {
+            return sendTimers.computeIfAbsent(webhookUrl, k -> new Timer());
+        }
+        return sendTimers.computeIfAbsent(webhookUrl,
+                k -> metrics.timer(MetricRegistry.name(SlackService.class, "send", toMetricName(webhookUrl))));
+    }
+
+    /**
+     * Record whether the request went out on a pooled connection or a new one. Must be called before the response
+     * entity is consumed, while the connection is still attached to the context.
+     * @param context   request context
+     */
+    private void recordConnectionReuse(HttpClientContext context) {
+        HttpConnection connection = context.getConnection();
+        if (connection == null) {
             return;
         }
-        send(internalWebhookUrl, internalChannel, text, null);
+        try {
+            if (connection.getMetrics().getRequestCount() > 1) {
+                reusedConnections.mark();
+            } else {
+                newConnections.mark();
+            }
+        } catch (ConnectionShutdownException e) {
+            // already released back to the pool
+        }
+    }
+
+    /**
+     * Name a webhook for metrics without its secret token: https://hooks.slack.com/services/T000/B000/secret becomes
+     * "T000.B000".
+     * @param webhookUrl    webhook url
+     * @return  metric name
+     */
+    static String toMetricName(String webhookUrl) {
+        URI uri = URI.create(webhookUrl);
+        String[] segments = uri.getPath() != null ? uri.getPath().split("/") : new String[0];
+        // path is "", "services", team, hook, token
+        if (segments.length >= 5 && "services".equals(segments[1])) {
+            return segments[2] + "." + segments[3];
+        }
+        return uri.getHost();
+    }
+
+    private long parseRetryAfter(HttpResponse response) {
+        Header header = response.getFirstHeader(HttpHeaders.RETRY_AFTER);
+        if (header == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(header.getValue().trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * The outcome of posting a message to a webhook.
+     */
+    static class DeliveryResult {
+        static final DeliveryResult SKIPPED = new DeliveryResult(0, 0);
+
+        private final int statusCode;
+        private final long retryAfterMs;
+
+        DeliveryResult(int statusCode, long retryAfterMs) {
+            this.statusCode = statusCode;
+            this.retryAfterMs = retryAfterMs;
+        }
+
+        /**
+         * @return  HTTP status code, or 0 if sending is disabled
+         */
+        int getStatusCode() {
+            return statusCode;
+        }
+
+        /**
+         * @return  requested back-off from a Retry-After header, or 0 if none was sent
+         */
+        long getRetryAfterMs() {
+            return retryAfterMs;
+        }
+
+        boolean isRateLimited() {
+            return statusCode == 429;
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,53 @@
+package io.stardog.starwizard.services.slack;
+
+/**
+ * A token bucket rate limiter: permits refill at a steady rate up to a burst capacity, and each send takes one. The
+ * bucket can also be paused, e.g. until the time given in a Retry-After header.
+ */
+class TokenBucket {
+    private final double permitsPerMs;
+    private final double capacity;
+    private double tokens;
+    private long lastRefillMs;
+    private long pausedUntilMs;
+
+    TokenBucket(double permitsPerSecond, int burst, long nowMs) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("permitsPerSecond and burst must be positive");
+        }
+        this.permitsPerMs = permitsPerSecond / 1000;
+        this.capacity = burst;
+        this.tokens = burst;
+        this.lastRefillMs = nowMs;
+    }
+
+    /**
+     * Take a permit if one is available.
+     * @param nowMs current time in milliseconds
+     * @return  0 if a permit was taken, otherwise how many milliseconds to wait before trying again
+     */
+    synchronized long tryAcquire(long nowMs) {
+        if (nowMs < pausedUntilMs) {
+            return pausedUntilMs - nowMs;
+        }
+        tokens = Math.min(capacity, tokens + (nowMs - lastRefillMs) * permitsPerMs);
+        lastRefillMs = nowMs;
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long)Math.ceil((1 - tokens) / permitsPerMs);
+    }
+
+    /**
+     * Stop handing out permits until the given time, and start from an empty bucket after that.
+     * @param untilMs   time in milliseconds
+     */
+    synchronized void pauseUntil(long untilMs) {
+        if (untilMs > pausedUntilMs) {
+            pausedUntilMs = untilMs;
+            tokens = 0;
+            lastRefillMs = untilMs;
+        }
+    }
+}
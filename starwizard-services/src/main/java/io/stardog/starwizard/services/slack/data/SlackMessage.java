@@ -0,0 +1,36 @@
+package io.stardog.starwizard.services.slack.data;
+
+import com.google.auto.value.AutoValue;
+
+import javax.annotation.Nullable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single message to post to a Slack incoming webhook.
+ */
+@AutoValue
+public abstract class SlackMessage {
+    public abstract SlackWebhook getWebhook();
+    @Nullable
+    public abstract String getText();
+    @Nullable
+    public abstract List<Map<String,Object>> getAttachments();
+
+    public static SlackMessage of(SlackWebhook webhook, String text) {
+        return builder().webhook(webhook).text(text).build();
+    }
+
+    public abstract Builder toBuilder();
+    public static SlackMessage.Builder builder() {
+        return new AutoValue_SlackMessage.Builder();
+    }
+
+    @AutoValue.Builder
+    public abstract static class Builder {
+        public abstract Builder webhook(SlackWebhook webhook);
+        public abstract Builder text(@Nullable String text);
+        public abstract Builder attachments(@Nullable List<Map<String,Object>> attachments);
+        public abstract SlackMessage build();
+    }
+}
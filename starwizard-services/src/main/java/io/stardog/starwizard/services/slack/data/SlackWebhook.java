@@ -0,0 +1,24 @@
+package io.stardog.starwizard.services.slack.data;
+
+import com.google.auto.value.AutoValue;
+
+import javax.annotation.Nullable;
+
+/**
+ * A Slack incoming webhook together with the constant parts of every message sent through it: channel, username and
+ * icon. SlackService encodes these once per webhook, so sending a message only has to encode its text.
+ */
+@AutoValue
+public abstract class SlackWebhook {
+    public abstract String getUrl();
+    @Nullable
+    public abstract String getChannel();
+    @Nullable
+    public abstract String getUsername();
+    @Nullable
+    public abstract String getIconUrl();
+
+    public static SlackWebhook of(String url, @Nullable String channel, @Nullable String username, @Nullable String iconUrl) {
+        return new AutoValue_SlackWebhook(url, channel, username, iconUrl);
+    }
+}
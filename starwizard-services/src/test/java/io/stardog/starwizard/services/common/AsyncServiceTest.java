@@ -0,0 +1,298 @@
+package io.stardog.starwizard.services.common;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AsyncServiceTest {
+    @Test
+    public void submitLimitsConcurrencyPerResource() throws Exception {
+        AsyncPoolConfig config = new AsyncPoolConfig();
+        config.setName("io");
+        config.setType(AsyncPoolConfig.Type.VIRTUAL);
+        AsyncService service = new AsyncService(ImmutableList.of(config),
+                ImmutableMap.of(AsyncService.RESOURCE_S3, 2), Duration.ofSeconds(5), null);
+
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            futures.add(service.submit("io", AsyncService.RESOURCE_S3, () -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        service.stop();
+
+        assertTrue(maxRunning.get() <= 2);
+    }
+
+    @Test
+    public void submitUnknownPoolUsesDefault() throws Exception {
+        AsyncService service = new AsyncService(new AsyncPoolConfig(), null);
+        service.submit("missing", () -> { throw new IllegalStateException("expected"); });
+        service.stop();
+
+        assertEquals(1, service.getFailureCount(AsyncService.DEFAULT_POOL));
+    }
+
+    @Test
+    public void submitRunsHigherPriorityFirstAndDropsExpired() throws Exception {
+        AsyncService service = new AsyncService(
+                new AsyncPoolConfig(AsyncService.DEFAULT_POOL, 1, 10, AsyncPoolConfig.RejectionPolicy.ABORT), null);
+        CountDownLatch blocked = new CountDownLatch(1);
+        service.submit(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        service.submit(AsyncService.Priority.LOW, () -> order.add("low"));
+        service.submit(AsyncService.Priority.NORMAL, () -> order.add("normal"));
+        Future<?> expired = service.submit(AsyncService.DEFAULT_POOL, AsyncService.Priority.HIGH,
+                Instant.now().minusSeconds(1), () -> order.add("expired"));
+        Future<?> high = service.submit(AsyncService.Priority.HIGH, () -> order.add("high"));
+        blocked.countDown();
+        high.get();
+        service.stop();
+
+        assertEquals(ImmutableList.of("high", "normal", "low"), order);
+        assertTrue(expired.isCancelled());
+        assertEquals(1, service.getExpiredCount(AsyncService.DEFAULT_POOL, AsyncService.Priority.HIGH));
+    }
+
+    @Test
+    public void fullQueueAppliesRejectionPolicyToTask() throws Exception {
+        CountDownLatch blocked = new CountDownLatch(1);
+
+        AsyncService abort = blockedService(AsyncPoolConfig.RejectionPolicy.ABORT, blocked);
+        Future<?> queued = abort.submit(() -> { });
+        try {
+            abort.submit(() -> { });
+            fail("expected rejection");
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+
+        AsyncService discard = blockedService(AsyncPoolConfig.RejectionPolicy.DISCARD, blocked);
+        Future<?> kept = discard.submit(() -> { });
+        Future<?> discarded = discard.submit(() -> { });
+        assertTrue(discarded.isCancelled());
+
+        // at the same priority the newest task would run last, so it is the one dropped
+        AsyncService discardOldest = blockedService(AsyncPoolConfig.RejectionPolicy.DISCARD_OLDEST, blocked);
+        Future<?> oldest = discardOldest.submit(() -> { });
+        Future<?> newest = discardOldest.submit(() -> { });
+        assertTrue(newest.isCancelled());
+
+        AsyncService callerRuns = blockedService(AsyncPoolConfig.RejectionPolicy.CALLER_RUNS, blocked);
+        List<String> ranOn = new CopyOnWriteArrayList<>();
+        Future<?> waiting = callerRuns.submit(() -> ranOn.add("waiting"));
+        Future<?> rejected = callerRuns.submit(() -> ranOn.add(Thread.currentThread().getName()));
+        assertTrue(rejected.isDone());
+        assertEquals(ImmutableList.of(Thread.currentThread().getName()), ranOn);
+
+        blocked.countDown();
+        queued.get();
+        kept.get();
+        oldest.get();
+        waiting.get();
+        for (AsyncService service : ImmutableList.of(abort, discard, discardOldest, callerRuns)) {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void discardOldestDropsLeastUrgentTask() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        AsyncService service = new AsyncService(new AsyncPoolConfig(AsyncService.DEFAULT_POOL, 1, 2,
+                AsyncPoolConfig.RejectionPolicy.DISCARD_OLDEST), metrics);
+        CountDownLatch blocked = new CountDownLatch(1);
+        service.submit(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        List<String> order = new CopyOnWriteArrayList<>();
+        Future<?> low = service.submit(AsyncService.Priority.LOW, () -> order.add("low"));
+        Future<?> high = service.submit(AsyncService.Priority.HIGH, () -> order.add("high"));
+        // the queue is full from here on
+        Future<?> normal = service.submit(AsyncService.Priority.NORMAL, () -> order.add("normal"));
+        assertTrue(low.isCancelled());
+        Future<?> lateLow = service.submit(AsyncService.Priority.LOW, () -> order.add("late low"));
+        assertTrue(lateLow.isCancelled());
+        Future<?> secondHigh = service.submit(AsyncService.Priority.HIGH, () -> order.add("second high"));
+        assertTrue(normal.isCancelled());
+
+        blocked.countDown();
+        high.get();
+        secondHigh.get();
+        service.stop();
+
+        assertEquals(ImmutableList.of("high", "second high"), order);
+        assertEquals(6, metrics.meter("async.default.submitted").getCount());
+        assertEquals(3, metrics.counter("async.default.rejected").getCount());
+    }
+
+    @Test
+    public void stopCancelsQueuedTasks() throws Exception {
+        AsyncService service = new AsyncService(ImmutableList.of(
+                new AsyncPoolConfig(AsyncService.DEFAULT_POOL, 1, 10, AsyncPoolConfig.RejectionPolicy.ABORT)),
+                Duration.ofMillis(50), null);
+        CountDownLatch blocked = new CountDownLatch(1);
+        service.submit(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        Future<?> queued = service.submit(() -> { });
+        service.stop();
+
+        assertTrue(queued.isCancelled());
+    }
+
+    @Test
+    public void poolConfigDefaults() {
+        AsyncPoolConfig config = new AsyncPoolConfig();
+        assertEquals(AsyncService.DEFAULT_POOL, config.getName());
+        assertEquals(4, config.getThreads());
+        assertEquals(1000, config.getQueueCapacity());
+        assertEquals(AsyncPoolConfig.Type.FIXED, config.getType());
+        assertEquals(256, config.getMaxThreads());
+        assertEquals(AsyncPoolConfig.RejectionPolicy.ABORT, config.getRejectionPolicy());
+
+        config = new AsyncPoolConfig("images", 2, 5, AsyncPoolConfig.RejectionPolicy.DISCARD);
+        assertEquals("images", config.getName());
+        assertEquals(2, config.getThreads());
+        assertEquals(5, config.getQueueCapacity());
+        assertEquals(AsyncPoolConfig.Type.FIXED, config.getType());
+        assertEquals(AsyncPoolConfig.RejectionPolicy.DISCARD, config.getRejectionPolicy());
+    }
+
+    @Test
+    public void fixedPoolRunsOnDaemonThreads() throws Exception {
+        ThreadPoolExecutor pool = AsyncService.buildThreadPool(
+                new AsyncPoolConfig("images", 2, 5, AsyncPoolConfig.RejectionPolicy.ABORT), null);
+        try {
+            assertEquals(2, pool.getCorePoolSize());
+            assertEquals(2, pool.getMaximumPoolSize());
+            Thread thread = pool.submit(Thread::currentThread).get();
+            assertTrue(thread.isDaemon());
+            assertTrue(thread.getName().startsWith("async-images-"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void elasticFallbackGrowsOnDaemonThreads() throws Exception {
+        AsyncPoolConfig config = new AsyncPoolConfig();
+        config.setName("io");
+        config.setType(AsyncPoolConfig.Type.VIRTUAL);
+        config.setMaxThreads(3);
+        ThreadPoolExecutor pool = AsyncService.buildThreadPool(config, null);
+        try {
+            assertEquals(0, pool.getCorePoolSize());
+            assertEquals(3, pool.getMaximumPoolSize());
+            assertEquals(60, pool.getKeepAliveTime(TimeUnit.SECONDS));
+            assertTrue(pool.getQueue() instanceof SynchronousQueue);
+
+            // each task holds its thread until all three have started, so the pool must grow to its maximum
+            CountDownLatch started = new CountDownLatch(3);
+            List<Future<Thread>> threads = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                threads.add(pool.submit(() -> {
+                    started.countDown();
+                    started.await(5, TimeUnit.SECONDS);
+                    return Thread.currentThread();
+                }));
+            }
+            for (Future<Thread> f : threads) {
+                assertTrue(f.get(5, TimeUnit.SECONDS).isDaemon());
+            }
+            assertEquals(3, pool.getLargestPoolSize());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void virtualThreadsAvailableFromJava21() {
+        String version = System.getProperty("java.specification.version");
+        int feature = Integer.parseInt(version.startsWith("1.") ? version.substring(2) : version);
+        ExecutorService virtual = AsyncService.newVirtualThreadExecutor();
+
+        assertEquals(feature >= 21, virtual != null);
+        if (virtual != null) {
+            virtual.shutdown();
+        }
+    }
+
+    @Test
+    public void virtualPoolRunsTasksOnDaemonThreads() throws Exception {
+        AsyncPoolConfig config = new AsyncPoolConfig();
+        config.setName("io");
+        config.setType(AsyncPoolConfig.Type.VIRTUAL);
+        AsyncService service = new AsyncService(config, null);
+        List<Boolean> daemon = new CopyOnWriteArrayList<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(service.submit("io", () -> daemon.add(Thread.currentThread().isDaemon())));
+        }
+        for (Future<?> f : futures) {
+            f.get(5, TimeUnit.SECONDS);
+        }
+        service.stop();
+
+        assertEquals(10, daemon.size());
+        assertFalse(daemon.contains(false));
+    }
+
+    /**
+     * @return  service with one thread, held until the latch is released, and room to queue one task
+     */
+    private static AsyncService blockedService(AsyncPoolConfig.RejectionPolicy policy, CountDownLatch blocked) {
+        AsyncService service = new AsyncService(new AsyncPoolConfig(AsyncService.DEFAULT_POOL, 1, 1, policy), null);
+        service.submit(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        return service;
+    }
+}
@@ -0,0 +1,189 @@
+package io.stardog.starwizard.services.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class DurableTaskQueueTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ExecutorService executor;
+    private AsyncService asyncService;
+    private File journalFile;
+    private File deadLetterFile;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        asyncService = new AsyncService(executor);
+        journalFile = new File(folder.getRoot(), "tasks.journal");
+        deadLetterFile = new File(folder.getRoot(), "tasks.dead");
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void acksOnSuccess() throws Exception {
+        List<String> handled = new CopyOnWriteArrayList<>();
+        DurableTaskQueue queue = newQueue(3, Duration.ofMillis(10));
+        queue.register("email", payload -> handled.add(string(payload)));
+        queue.start();
+
+        queue.submit("email", bytes("one"));
+        queue.submit("email", bytes("two"));
+        await(() -> queue.getCompletedCount() == 2);
+        queue.stop();
+
+        assertEquals(2, handled.size());
+        try (TaskJournal journal = new TaskJournal(journalFile, 4096, false)) {
+            assertEquals(0, journal.getPendingCount());
+        }
+    }
+
+    @Test
+    public void replaysAfterRestart() throws Exception {
+        // submitted but never run, as if the app stopped before getting to them
+        DurableTaskQueue first = newQueue(3, Duration.ofMillis(10));
+        first.register("email", payload -> fail("should not run before start"));
+        first.submit("email", bytes("one"));
+        first.submit("email", bytes("two"));
+        first.stop();
+
+        List<String> handled = new CopyOnWriteArrayList<>();
+        DurableTaskQueue second = newQueue(3, Duration.ofMillis(10));
+        second.register("email", payload -> handled.add(string(payload)));
+        second.start();
+        await(() -> second.getCompletedCount() == 2);
+        second.stop();
+
+        assertEquals("one", handled.get(0));
+        assertEquals("two", handled.get(1));
+    }
+
+    @Test
+    public void deadLettersAfterMaxAttempts() throws Exception {
+        DurableTaskQueue queue = newQueue(3, Duration.ofMillis(10));
+        queue.register("email", payload -> {
+            throw new IllegalStateException("mail server down");
+        });
+        queue.start();
+
+        queue.submit("email", bytes("one"));
+        await(() -> queue.getDeadLetterCount() == 1);
+        queue.stop();
+
+        assertEquals(2, queue.getRetryCount());
+        assertEquals(0, queue.getCompletedCount());
+        String dead = new String(Files.readAllBytes(deadLetterFile.toPath()), StandardCharsets.UTF_8);
+        assertTrue(dead.contains("\"type\":\"email\""));
+        assertTrue(dead.contains("mail server down"));
+        try (TaskJournal journal = new TaskJournal(journalFile, 4096, false)) {
+            assertEquals(0, journal.getPendingCount());
+        }
+    }
+
+    @Test
+    public void retryBackoffDoesNotHoldPoolThread() throws Exception {
+        List<String> handled = new CopyOnWriteArrayList<>();
+        DurableTaskQueue queue = newQueue(3, Duration.ofMinutes(10));
+        queue.register("email", payload -> {
+            if (string(payload).equals("bad")) {
+                throw new IllegalStateException("bounced");
+            }
+            handled.add(string(payload));
+        });
+        queue.start();
+
+        // the pool has a single thread, so "good" only runs while "bad" waits for its retry
+        queue.submit("email", bytes("bad"));
+        queue.submit("email", bytes("good"));
+        await(() -> queue.getCompletedCount() == 1);
+        assertEquals(1, queue.getRetryCount());
+
+        // stop doesn't wait out the backoff, and the failed task is kept for the next start
+        long start = System.nanoTime();
+        queue.stop();
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(5).toNanos());
+        try (TaskJournal journal = new TaskJournal(journalFile, 4096, false)) {
+            assertEquals(1, journal.getPendingCount());
+            assertEquals("bad", string(journal.getPending().get(0).getPayload()));
+        }
+    }
+
+    @Test
+    public void discardedTaskDoesNotHoldUpStop() throws Exception {
+        AsyncService discarding = new AsyncService(
+                new AsyncPoolConfig(AsyncService.DEFAULT_POOL, 1, 1, AsyncPoolConfig.RejectionPolicy.DISCARD), null);
+        CountDownLatch blocked = new CountDownLatch(1);
+        DurableTaskQueue queue = newQueue(discarding, 3, Duration.ofMillis(10));
+        queue.register("email", payload -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        queue.start();
+
+        // one running, one queued, and the pool discards the third
+        queue.submit("email", bytes("one"));
+        queue.submit("email", bytes("two"));
+        queue.submit("email", bytes("three"));
+        blocked.countDown();
+        await(() -> queue.getCompletedCount() == 2);
+
+        long start = System.nanoTime();
+        queue.stop();
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(1).toNanos());
+        discarding.stop();
+        try (TaskJournal journal = new TaskJournal(journalFile, 4096, false)) {
+            assertEquals(1, journal.getPendingCount());
+            assertEquals("three", string(journal.getPending().get(0).getPayload()));
+        }
+    }
+
+    private DurableTaskQueue newQueue(int maxAttempts, Duration retryDelay) {
+        return newQueue(asyncService, maxAttempts, retryDelay);
+    }
+
+    private DurableTaskQueue newQueue(AsyncService asyncService, int maxAttempts, Duration retryDelay) {
+        return new DurableTaskQueue(asyncService, AsyncService.DEFAULT_POOL,
+                new TaskJournal(journalFile, 4096, false), deadLetterFile, maxAttempts, retryDelay,
+                Duration.ofSeconds(5), null);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (!condition.getAsBoolean()) {
+            assertTrue("timed out", System.nanoTime() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] b) {
+        return new String(b, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,83 @@
+package io.stardog.starwizard.services.common;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class TaskJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void replaysUnackedTasks() throws Exception {
+        File file = new File(folder.getRoot(), "tasks.journal");
+        try (TaskJournal journal = new TaskJournal(file, 4096, false)) {
+            long first = journal.append("resize", bytes("one")).getId();
+            journal.append("resize", bytes("two"));
+            journal.ack(first);
+        }
+
+        try (TaskJournal journal = new TaskJournal(file, 4096, false)) {
+            List<TaskJournal.Entry> pending = journal.getPending();
+            assertEquals(1, pending.size());
+            assertEquals("resize", pending.get(0).getType());
+            assertEquals("two", new String(pending.get(0).getPayload(), StandardCharsets.UTF_8));
+            assertTrue(journal.append("resize", bytes("three")).getId() > pending.get(0).getId());
+        }
+    }
+
+    @Test
+    public void discardsTornRecord() throws Exception {
+        File file = new File(folder.getRoot(), "tasks.journal");
+        try (TaskJournal journal = new TaskJournal(file, 4096, false)) {
+            journal.append("resize", bytes("one"));
+            journal.append("resize", bytes("two"));
+        }
+        // corrupt the last byte of the second record's payload
+        int secondEnd = 2 * (8 + 1 + 8 + 2 + "resize".length() + 3);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(secondEnd - 1);
+            raf.write('x');
+        }
+
+        try (TaskJournal journal = new TaskJournal(file, 4096, false)) {
+            assertEquals(1, journal.getPendingCount());
+            journal.append("resize", bytes("three"));
+        }
+        try (TaskJournal journal = new TaskJournal(file, 4096, false)) {
+            assertEquals(2, journal.getPendingCount());
+            assertEquals("three", new String(journal.getPending().get(1).getPayload(), StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    public void compactsAndGrowsWhenFull() throws Exception {
+        File file = new File(folder.getRoot(), "tasks.journal");
+        try (TaskJournal journal = new TaskJournal(file, 256, false)) {
+            for (int i = 0; i < 100; i++) {
+                long id = journal.append("resize", bytes("task" + i)).getId();
+                if (i % 10 != 0) {
+                    journal.ack(id);
+                }
+            }
+        }
+
+        try (TaskJournal journal = new TaskJournal(file, 256, false)) {
+            List<TaskJournal.Entry> pending = journal.getPending();
+            assertEquals(10, pending.size());
+            assertEquals("task0", new String(pending.get(0).getPayload(), StandardCharsets.UTF_8));
+            assertEquals("task90", new String(pending.get(9).getPayload(), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,76 @@
+package io.stardog.starwizard.services.common;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the live clock with the cached clock for getNow() and getToday(), with several threads reading at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class TimeServiceBenchmark {
+    private TimeService live;
+    private TimeService cached;
+
+    @Setup
+    public void setup() throws Exception {
+        live = new TimeService(ZoneId.of("America/New_York"));
+        cached = new TimeService(ZoneId.of("America/New_York"), Duration.ofMillis(1));
+        cached.start();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        cached.stop();
+    }
+
+    @Benchmark
+    public Instant liveNow() {
+        return live.getNow();
+    }
+
+    @Benchmark
+    public Instant cachedNow() {
+        return cached.getNow();
+    }
+
+    @Benchmark
+    public LocalDate liveToday() {
+        return live.getToday();
+    }
+
+    @Benchmark
+    public LocalDate cachedToday() {
+        return cached.getToday();
+    }
+
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .include(TimeServiceBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
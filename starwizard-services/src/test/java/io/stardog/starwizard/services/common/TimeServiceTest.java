@@ -0,0 +1,181 @@
+package io.stardog.starwizard.services.common;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class TimeServiceTest {
+    private final static ZoneId NEW_YORK = ZoneId.of("America/New_York");
+
+    private final MutableClock clock = new MutableClock(Instant.parse("2024-03-01T12:00:00Z"));
+    private TimeService service;
+
+    /**
+     * A clock that only moves when told to.
+     */
+    private static class MutableClock extends Clock {
+        private volatile Instant now;
+
+        MutableClock(Instant now) {
+            this.now = now;
+        }
+
+        void set(Instant now) {
+            this.now = now;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneId.of("UTC");
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (service != null) {
+            service.stop();
+        }
+    }
+
+    @Test
+    public void cachedClockAdvancesAfterStart() throws Exception {
+        service = new TimeService(NEW_YORK, Duration.ofMillis(5), clock);
+        service.start();
+        assertEquals(clock.instant(), service.getNow());
+
+        Instant later = Instant.parse("2024-03-02T12:00:00Z");
+        clock.set(later);
+        awaitNow(later);
+
+        assertEquals(later.toEpochMilli(), service.getNowMillis());
+        assertEquals(LocalDate.of(2024, 3, 2), service.getToday());
+    }
+
+    @Test
+    public void cachedClockFollowsSystemClock() throws Exception {
+        service = new TimeService(NEW_YORK, Duration.ofMillis(5));
+        service.start();
+        Instant first = service.getNow();
+
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!service.getNow().isAfter(first) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertTrue(service.getNow().isAfter(first));
+    }
+
+    @Test
+    public void usesLiveClockAfterStop() throws Exception {
+        service = new TimeService(NEW_YORK, Duration.ofHours(1), clock);
+        service.start();
+        Instant started = clock.instant();
+        clock.set(started.plusSeconds(60));
+        // the ticker won't run again for an hour, so the cached time is still the start time
+        assertEquals(started, service.getNow());
+
+        service.stop();
+
+        assertEquals(started.plusSeconds(60), service.getNow());
+        Instant nextDay = Instant.parse("2024-03-02T12:00:00Z");
+        clock.set(nextDay);
+        assertEquals(nextDay, service.getNow());
+        assertEquals(nextDay.toEpochMilli(), service.getNowMillis());
+        assertEquals(LocalDate.of(2024, 3, 2), service.getToday());
+    }
+
+    @Test
+    public void todayRollsOverAtZoneMidnight() throws Exception {
+        service = new TimeService(NEW_YORK, Duration.ofMillis(5), clock);
+        Instant midnight = LocalDate.of(2024, 3, 2).atStartOfDay(NEW_YORK).toInstant();
+        clock.set(midnight.minusSeconds(60));
+        service.start();
+        assertEquals(LocalDate.of(2024, 3, 1), service.getToday());
+
+        // already March 2nd in UTC, but not yet in New York
+        clock.set(midnight.minusMillis(1));
+        awaitNow(midnight.minusMillis(1));
+        assertEquals(LocalDate.of(2024, 3, 1), service.getToday());
+
+        clock.set(midnight);
+        awaitNow(midnight);
+        assertEquals(LocalDate.of(2024, 3, 2), service.getToday());
+
+        // the clock going backwards recalculates the date too
+        clock.set(midnight.minusSeconds(1));
+        awaitNow(midnight.minusSeconds(1));
+        assertEquals(LocalDate.of(2024, 3, 1), service.getToday());
+    }
+
+    @Test
+    public void setNowIsVisibleToOtherThreads() throws Exception {
+        service = new TimeService(NEW_YORK, Duration.ofMillis(5), clock);
+        service.start();
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            LocalDate first = LocalDate.of(2024, 1, 1);
+            service.setToday(first);
+            assertEquals(first, readers.submit(service::getToday).get());
+            assertEquals(first.atStartOfDay(NEW_YORK).toInstant(), readers.submit(service::getNow).get());
+
+            // while another thread keeps moving today forward, readers only ever see the times it set
+            CountDownLatch done = new CountDownLatch(1);
+            List<Future<?>> reads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                reads.add(readers.submit(() -> {
+                    do {
+                        Instant now = service.getNow();
+                        LocalDate day = service.toDate(now);
+                        assertEquals(day.atStartOfDay(NEW_YORK).toInstant(), now);
+                        assertFalse(day.isBefore(first));
+                    } while (done.getCount() > 0);
+                }));
+            }
+            for (int i = 1; i <= 1000; i++) {
+                service.setToday(first.plusDays(i));
+            }
+            done.countDown();
+            for (Future<?> f : reads) {
+                f.get(5, TimeUnit.SECONDS);
+            }
+            assertEquals(first.plusDays(1000), readers.submit(service::getToday).get());
+
+            service.setNow(null);
+            assertEquals(clock.instant(), readers.submit(service::getNow).get());
+        } finally {
+            readers.shutdownNow();
+        }
+    }
+
+    private void awaitNow(Instant expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!expected.equals(service.getNow()) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(expected, service.getNow());
+    }
+}
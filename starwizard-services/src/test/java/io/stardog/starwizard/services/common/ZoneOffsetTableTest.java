@@ -0,0 +1,80 @@
+package io.stardog.starwizard.services.common;
+
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ZoneOffsetTableTest {
+    private static final String[] ZONES = {
+            "UTC", "America/New_York", "Europe/London", "Australia/Lord_Howe", "Asia/Kolkata", "Pacific/Apia"
+    };
+
+    @Test
+    public void toEpochDaysMatchesJavaTime() {
+        Random random = new Random(42);
+        long from = Instant.parse("1995-01-01T00:00:00Z").toEpochMilli();
+        long to = Instant.parse("2035-01-01T00:00:00Z").toEpochMilli();
+        for (String id : ZONES) {
+            ZoneId zone = ZoneId.of(id);
+            ZoneOffsetTable table = ZoneOffsetTable.of(zone, 2000, 2030);
+
+            long[] millis = new long[20000];
+            for (int i = 0; i < millis.length; i++) {
+                // mostly increasing runs within the table's range, with some values outside it
+                millis[i] = i % 100 == 0
+                        ? from + (long)(random.nextDouble() * (to - from))
+                        : millis[Math.max(0, i - 1)] + random.nextInt(3_600_000);
+            }
+            int[] days = table.toEpochDays(millis);
+            for (int i = 0; i < millis.length; i++) {
+                LocalDate expected = Instant.ofEpochMilli(millis[i]).atZone(zone).toLocalDate();
+                assertEquals(id + " at " + millis[i], expected.toEpochDay(), days[i]);
+                assertEquals(expected.toEpochDay(), table.toEpochDay(millis[i]));
+            }
+        }
+    }
+
+    @Test
+    public void toEpochDayAtTransition() {
+        ZoneId zone = ZoneId.of("America/New_York");
+        ZoneOffsetTable table = ZoneOffsetTable.of(zone, 2020, 2020);
+        long transition = Instant.parse("2020-11-01T06:00:00Z").toEpochMilli();
+        assertEquals(-4 * 3600, table.getOffsetSeconds(transition - 1));
+        assertEquals(-5 * 3600, table.getOffsetSeconds(transition));
+    }
+
+    @Test
+    public void toBuckets() {
+        ZoneId zone = ZoneId.of("Europe/Paris");
+        ZoneOffsetTable table = ZoneOffsetTable.of(zone, 2023, 2025);
+        long[] millis = new long[5000];
+        long start = Instant.parse("2023-01-01T00:00:00Z").toEpochMilli();
+        for (int i = 0; i < millis.length; i++) {
+            millis[i] = start + i * 17_000_000L;
+        }
+        int[] weeks = table.toBuckets(millis, ChronoUnit.WEEKS);
+        int[] months = table.toBuckets(millis, ChronoUnit.MONTHS);
+        for (int i = 0; i < millis.length; i++) {
+            LocalDate date = Instant.ofEpochMilli(millis[i]).atZone(zone).toLocalDate();
+            assertEquals(date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).toEpochDay(), weeks[i]);
+            assertEquals(date.withDayOfMonth(1).toEpochDay(), months[i]);
+        }
+    }
+
+    @Test
+    public void monthStartAcrossEras() {
+        for (LocalDate d = LocalDate.of(1600, 1, 1); d.isBefore(LocalDate.of(2400, 1, 1)); d = d.plusDays(13)) {
+            assertEquals(d.withDayOfMonth(1).toEpochDay(), ZoneOffsetTable.monthStart((int)d.toEpochDay()));
+            assertEquals(d.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).toEpochDay(),
+                    ZoneOffsetTable.weekStart((int)d.toEpochDay()));
+        }
+    }
+}
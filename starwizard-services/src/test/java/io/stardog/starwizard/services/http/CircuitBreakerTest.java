@@ -0,0 +1,68 @@
+package io.stardog.starwizard.services.http;
+
+import io.dropwizard.util.Duration;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class CircuitBreakerTest {
+    private final AtomicLong now = new AtomicLong(1000000);
+
+    private CircuitBreaker newBreaker() {
+        CircuitBreakerConfig config = new CircuitBreakerConfig();
+        config.setEnabled(true);
+        config.setFailureRateThreshold(0.5);
+        config.setMinimumRequests(4);
+        config.setWindow(Duration.seconds(10));
+        config.setWindowBuckets(10);
+        config.setOpenDuration(Duration.seconds(30));
+        return new CircuitBreaker(config, now::get);
+    }
+
+    @Test
+    public void opensOnFailureRate() {
+        CircuitBreaker breaker = newBreaker();
+        breaker.onSuccess();
+        breaker.onSuccess();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+    }
+
+    @Test
+    public void oldFailuresRollOutOfWindow() {
+        CircuitBreaker breaker = newBreaker();
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onFailure();
+        now.addAndGet(11000);
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void halfOpenTrial() {
+        CircuitBreaker breaker = newBreaker();
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        assertFalse(breaker.allowRequest());
+
+        now.addAndGet(30000);
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        now.addAndGet(30000);
+        assertTrue(breaker.allowRequest());
+        breaker.onSuccess();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+    }
+}
@@ -0,0 +1,66 @@
+package io.stardog.starwizard.services.http;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+
+public class ExponentialBackoffRetryPolicyTest {
+    private final ExponentialBackoffRetryPolicy policy = new ExponentialBackoffRetryPolicy(3, 100, 10_000);
+    private final HttpGet get = new HttpGet("https://example.com/");
+
+    @Test
+    public void retriesConnectionErrorsAndRetryableStatuses() {
+        assertTrue(policy.retryDelayMillis(0, get, null, new ConnectException()) >= 0);
+        assertTrue(policy.retryDelayMillis(0, get, response(503, null), null) >= 0);
+        assertEquals(-1, policy.retryDelayMillis(0, get, response(500, null), null));
+        assertEquals(-1, policy.retryDelayMillis(3, get, null, new ConnectException()));
+        assertEquals(-1, policy.retryDelayMillis(0, new HttpPost("https://example.com/"), response(503, null), null));
+    }
+
+    @Test
+    public void doesNotRetryTimeouts() {
+        assertEquals(-1, policy.retryDelayMillis(0, get, null, new SocketTimeoutException()));
+        assertEquals(-1, policy.retryDelayMillis(0, get, null, new ConnectionPoolTimeoutException()));
+    }
+
+    @Test
+    public void honoursRetryAfter() {
+        long delay = policy.retryDelayMillis(0, get, response(429, "5"), null);
+        assertTrue(delay >= 5000 && delay <= 10_000);
+
+        delay = policy.retryDelayMillis(0, get, response(503, DateUtils.formatDate(new Date(System.currentTimeMillis() + 8000))), null);
+        assertTrue(delay > 6000 && delay <= 10_000);
+
+        assertEquals(-1, policy.retryDelayMillis(0, get, response(429, "60"), null));
+    }
+
+    @Test
+    public void parseRetryAfterMillis() {
+        assertEquals(2000, ExponentialBackoffRetryPolicy.parseRetryAfterMillis(new BasicHeader(HttpHeaders.RETRY_AFTER, "2")));
+        assertEquals(0, ExponentialBackoffRetryPolicy.parseRetryAfterMillis(
+                new BasicHeader(HttpHeaders.RETRY_AFTER, DateUtils.formatDate(new Date(0)))));
+        assertEquals(-1, ExponentialBackoffRetryPolicy.parseRetryAfterMillis(new BasicHeader(HttpHeaders.RETRY_AFTER, "soon")));
+        assertEquals(-1, ExponentialBackoffRetryPolicy.parseRetryAfterMillis(null));
+    }
+
+    private HttpResponse response(int status, String retryAfter) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+        if (retryAfter != null) {
+            response.addHeader(HttpHeaders.RETRY_AFTER, retryAfter);
+        }
+        return response;
+    }
+}
@@ -0,0 +1,19 @@
+package io.stardog.starwizard.services.http;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class HttpClientFactoryTest {
+    @Test
+    public void toRoute() {
+        assertEquals(new HttpRoute(new HttpHost("api.example.com", 443, "https"), null, true),
+                HttpClientFactory.toRoute("https://api.example.com"));
+        assertEquals(new HttpRoute(new HttpHost("api.example.com", 443, "https"), null, true),
+                HttpClientFactory.toRoute("api.example.com"));
+        assertEquals(new HttpRoute(new HttpHost("localhost", 8080, "http"), null, false),
+                HttpClientFactory.toRoute("http://localhost:8080"));
+    }
+}
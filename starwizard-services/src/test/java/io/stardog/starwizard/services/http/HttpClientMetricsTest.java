@@ -0,0 +1,69 @@
+package io.stardog.starwizard.services.http;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HttpClientMetricsTest {
+    @Test
+    public void toRouteTemplate() {
+        assertEquals("/", HttpClientMetrics.toRouteTemplate(""));
+        assertEquals("/", HttpClientMetrics.toRouteTemplate("/"));
+        assertEquals("/users/{id}/orders", HttpClientMetrics.toRouteTemplate("/users/12345/orders"));
+        assertEquals("/items/{id}", HttpClientMetrics.toRouteTemplate("/items/5b3f1c2e9d1e8a0012345678"));
+        assertEquals("/v1/{id}", HttpClientMetrics.toRouteTemplate("/v1/123e4567-e89b-12d3-a456-426614174000"));
+        assertEquals("/v1/customers/{id}", HttpClientMetrics.toRouteTemplate("/v1/customers/cus_Ab12Cd34Ef56"));
+        assertEquals("/v1/customers/search", HttpClientMetrics.toRouteTemplate("/v1/customers/search"));
+    }
+
+    @Test
+    public void routeTimersCappedPerHost() {
+        MetricRegistry metrics = new MetricRegistry();
+        HttpClientMetrics clientMetrics = new HttpClientMetrics(metrics, "test", 2);
+        for (String path : new String[] { "/a", "/b", "/c", "/d", "/a" }) {
+            clientMetrics.onResponse(new HttpGet("https://example.com" + path),
+                    new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, null), 1000);
+        }
+
+        assertEquals(2, metrics.timer("http.test.route.example.com:443.GET./a").getCount());
+        assertEquals(1, metrics.timer("http.test.route.example.com:443.GET./b").getCount());
+        assertEquals(2, metrics.timer("http.test.route.example.com:443.{other}").getCount());
+        assertTrue(metrics.getTimers().keySet().stream().noneMatch(name -> name.endsWith("/c")));
+    }
+
+    @Test
+    public void toErrorName() {
+        assertEquals("IOException", HttpClientMetrics.toErrorName(new IOException()));
+        IOException anonymous = new IOException() {};
+        assertEquals(anonymous.getClass().getName(), HttpClientMetrics.toErrorName(anonymous));
+    }
+
+    @Test
+    public void hostMetricsShareOneKey() {
+        MetricRegistry metrics = new MetricRegistry();
+        HttpClientMetrics clientMetrics = new HttpClientMetrics(metrics, "test", 10);
+        clientMetrics.onResponse(new HttpGet("https://API.example.com/a"),
+                new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, null), 1000);
+        clientMetrics.serverTimer(new HttpHost("api.example.com", -1, "https")).update(1, TimeUnit.MILLISECONDS);
+        clientMetrics.responseBytes(new HttpHost("api.example.com", -1, "https")).update(10);
+        clientMetrics.leaseTimer(new HttpRoute(new HttpHost("api.example.com", 443, "https")))
+                .update(1, TimeUnit.MILLISECONDS);
+
+        assertEquals(1, metrics.timer("http.test.host.api.example.com:443.requests").getCount());
+        assertEquals(1, metrics.timer("http.test.host.api.example.com:443.server").getCount());
+        assertEquals(1, metrics.histogram("http.test.host.api.example.com:443.responseBytes").getCount());
+        assertEquals(1, metrics.timer("http.test.host.api.example.com:443.lease").getCount());
+        assertTrue(metrics.getNames().stream().allMatch(name -> !name.contains(".host.") || name.contains(":443.")));
+        assertEquals("example.com:80", HttpClientMetrics.toHostKey(new HttpHost("example.com", -1, "http")));
+    }
+}
@@ -0,0 +1,69 @@
+package io.stardog.starwizard.services.http;
+
+import com.codahale.metrics.MetricRegistry;
+import org.apache.http.HttpHost;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class HttpConnectionPoolMonitorTest {
+    @Test
+    public void samePoolNameFailsFastAndKeepsFirstPoolsGauges() {
+        MetricRegistry metrics = new MetricRegistry();
+        HttpClientConfig config = new HttpClientConfig();
+        HttpConnectionPoolMonitor first = new HttpConnectionPoolMonitor(
+                HttpClientFactory.buildConnectionManager(config), config, metrics);
+        try {
+            new HttpConnectionPoolMonitor(HttpClientFactory.buildConnectionManager(config), config, metrics);
+            fail("expected duplicate pool name to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(4, metrics.getGauges().size());
+        assertTrue(metrics.getGauges().containsKey("http.default.pool.leased"));
+
+        first.close();
+        assertTrue(metrics.getGauges().isEmpty());
+
+        // the name is free again once the first pool is closed
+        new HttpConnectionPoolMonitor(HttpClientFactory.buildConnectionManager(config), config, metrics).close();
+    }
+
+    @Test
+    public void startAfterCloseDoesNotRestartEviction() throws Exception {
+        HttpClientConfig config = new HttpClientConfig();
+        config.setName("restart");
+        HttpConnectionPoolMonitor monitor = new HttpConnectionPoolMonitor(
+                HttpClientFactory.buildConnectionManager(config), config, null);
+        monitor.start();
+        assertTrue(hasEvictorThread());
+
+        monitor.close();
+        monitor.start();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (hasEvictorThread() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertFalse(hasEvictorThread());
+    }
+
+    private static boolean hasEvictorThread() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .anyMatch(t -> t.isAlive() && t.getName().equals("http-restart-evictor"));
+    }
+
+    @Test
+    public void routeNameIncludesSchemeAndPort() {
+        HttpClientConfig config = new HttpClientConfig();
+        PoolingHttpClientConnectionManager cm = HttpClientFactory.buildConnectionManager(config);
+        HttpConnectionPoolMonitor monitor = new HttpConnectionPoolMonitor(cm, config, null);
+
+        assertEquals("http.default.pool.https.example.com.443",
+                monitor.routeName(new HttpRoute(new HttpHost("example.com", -1, "https"))));
+        assertEquals("http.default.pool.http.example.com.8080",
+                monitor.routeName(new HttpRoute(new HttpHost("example.com", 8080, "http"))));
+        monitor.close();
+    }
+}
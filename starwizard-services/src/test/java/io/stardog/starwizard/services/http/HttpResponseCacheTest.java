@@ -0,0 +1,107 @@
+package io.stardog.starwizard.services.http;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.http.Header;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class HttpResponseCacheTest {
+    @Test
+    public void toKey() {
+        HttpGet get1 = new HttpGet("https://example.com/test?a=1");
+        get1.addHeader("Authorization", "Bearer abc");
+        get1.addHeader("Accept", "application/json");
+        HttpGet get2 = new HttpGet("https://example.com/test?a=1");
+        get2.addHeader("accept", "application/json");
+        get2.addHeader("Authorization", "Bearer abc");
+        HttpGet get3 = new HttpGet("https://example.com/test?a=1");
+        get3.addHeader("Authorization", "Bearer xyz");
+
+        assertEquals(HttpResponseCache.toKey(get1), HttpResponseCache.toKey(get2));
+        assertNotEquals(HttpResponseCache.toKey(get1), HttpResponseCache.toKey(get3));
+    }
+
+    @Test
+    public void parseCacheControl() {
+        HttpResponseCache.CacheControl control = HttpResponseCache.parseCacheControl(
+                new Header[] { new BasicHeader(HttpHeaders.CACHE_CONTROL, "public, max-age=60") });
+        assertEquals(60, control.maxAge);
+        assertFalse(control.noStore);
+
+        control = HttpResponseCache.parseCacheControl(
+                new Header[] { new BasicHeader(HttpHeaders.CACHE_CONTROL, "no-store") });
+        assertTrue(control.noStore);
+        assertEquals(-1, control.maxAge);
+    }
+
+    @Test
+    public void storeAndRevalidate() {
+        HttpResponseCache cache = new HttpResponseCache(10, "test", null);
+        Map<String,Object> body = ImmutableMap.of("id", 1);
+
+        HttpGet get = new HttpGet("https://example.com/fresh");
+        String key = HttpResponseCache.toKey(get);
+        assertNull(cache.lookup(key, get));
+        cache.store(key, response(200, "max-age=60", null), body);
+        assertEquals(body, cache.lookup(key, get));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+
+        HttpGet staleGet = new HttpGet("https://example.com/stale");
+        String staleKey = HttpResponseCache.toKey(staleGet);
+        cache.store(staleKey, response(200, "no-cache", "\"v1\""), body);
+        assertNull(cache.lookup(staleKey, staleGet));
+        assertEquals("\"v1\"", staleGet.getFirstHeader(HttpHeaders.IF_NONE_MATCH).getValue());
+        assertEquals(body, cache.revalidated(staleKey, response(304, "no-cache", "\"v1\"")));
+        assertEquals(1, cache.getRevalidationCount());
+
+        HttpGet uncacheableGet = new HttpGet("https://example.com/uncacheable");
+        String uncacheableKey = HttpResponseCache.toKey(uncacheableGet);
+        cache.store(uncacheableKey, response(200, null, null), body);
+        assertNull(cache.lookup(uncacheableKey, uncacheableGet));
+        assertNull(uncacheableGet.getFirstHeader(HttpHeaders.IF_NONE_MATCH));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void lookupReturnsCopies() {
+        HttpResponseCache cache = new HttpResponseCache(10, "test", null);
+        Map<String,Object> body = new HashMap<>();
+        body.put("items", new ArrayList<>(ImmutableList.of(new HashMap<>(ImmutableMap.of("id", 1)))));
+        HttpGet get = new HttpGet("https://example.com/fresh");
+        String key = HttpResponseCache.toKey(get);
+        cache.store(key, response(200, "max-age=60", null), body);
+        body.clear();
+
+        Map<String,Object> first = cache.lookup(key, get);
+        List<Map<String,Object>> items = (List<Map<String,Object>>)first.get("items");
+        items.get(0).put("id", 2);
+        items.add(new HashMap<>());
+
+        assertEquals(ImmutableMap.of("items", ImmutableList.of(ImmutableMap.of("id", 1))), cache.lookup(key, get));
+    }
+
+    private HttpResponse response(int status, String cacheControl, String etag) {
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, status, null);
+        if (cacheControl != null) {
+            response.addHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        }
+        if (etag != null) {
+            response.addHeader(HttpHeaders.ETAG, etag);
+        }
+        return response;
+    }
+}
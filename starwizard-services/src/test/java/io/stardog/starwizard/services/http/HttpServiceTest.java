@@ -0,0 +1,235 @@
+package io.stardog.starwizard.services.http;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.MetricRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.dropwizard.util.Duration;
+import io.stardog.starwizard.services.http.data.BatchResult;
+import io.stardog.starwizard.services.http.data.FetchResult;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class HttpServiceTest {
+    private LocalHttpServer server;
+    private HttpService service;
+
+    public static class Widget {
+        public String name;
+        public int count;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        server = new LocalHttpServer();
+        service = new HttpService(new HttpClientConfig(), new ObjectMapper(), null);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        service.stop();
+        server.close();
+    }
+
+    @Test
+    public void getJsonParsesObject() {
+        server.json("/widget", "{\"name\":\"gear\",\"count\":3,\"tags\":[\"a\",\"b\"]}");
+
+        Map<String,Object> json = service.getJson(server.uri("/widget"));
+
+        assertEquals("gear", json.get("name"));
+        assertEquals(3, json.get("count"));
+        assertEquals(ImmutableList.of("a", "b"), json.get("tags"));
+    }
+
+    @Test
+    public void getJsonWrapsTopLevelArray() {
+        server.json("/widgets", "[{\"name\":\"gear\"},{\"name\":\"cog\"}]");
+
+        Map<String,Object> json = service.getJson(server.uri("/widgets"));
+
+        assertEquals(ImmutableList.of(ImmutableMap.of("name", "gear"), ImmutableMap.of("name", "cog")),
+                json.get("data"));
+    }
+
+    @Test
+    public void getJsonEmptyBody() {
+        server.json("/empty", "");
+
+        assertTrue(service.getJson(server.uri("/empty")).isEmpty());
+    }
+
+    @Test
+    public void requestJsonBindsType() {
+        server.json("/widget", "{\"name\":\"gear\",\"count\":3}");
+
+        Widget widget = service.requestJson(new HttpGet(server.uri("/widget")), Widget.class);
+
+        assertEquals("gear", widget.name);
+        assertEquals(3, widget.count);
+    }
+
+    @Test
+    public void postJsonStreamsBody() {
+        server.json("/echo", "{\"ok\":true}");
+
+        Map<String,Object> json = service.postJson(server.uri("/echo"), ImmutableMap.of("name", "gear"),
+                ImmutableList.of());
+
+        assertEquals(true, json.get("ok"));
+        assertEquals("{\"name\":\"gear\"}", new String(server.getRequests().get(0).body));
+        assertEquals("application/json; charset=UTF-8", server.getRequests().get(0).getHeader("Content-type"));
+    }
+
+    @Test
+    public void getJsonAsync() throws Exception {
+        server.json("/widget", "{\"name\":\"gear\"}");
+
+        CompletableFuture<Map<String,Object>> future = service.getJsonAsync(server.uri("/widget"),
+                ImmutableMap.of("size", "large"), ImmutableList.of());
+
+        assertEquals("gear", future.get().get("name"));
+        assertEquals("size=large", server.getRequests().get(0).uri.getQuery());
+    }
+
+    @Test
+    public void postJsonAsync() throws Exception {
+        server.json("/echo", "[1,2]");
+
+        Map<String,Object> json = service.postJsonAsync(server.uri("/echo"), ImmutableMap.of("name", "gear"),
+                ImmutableList.of()).get();
+
+        assertEquals(ImmutableList.of(1, 2), json.get("data"));
+        assertEquals("POST", server.getRequests().get(0).method);
+        assertEquals("{\"name\":\"gear\"}", new String(server.getRequests().get(0).body));
+    }
+
+    @Test
+    public void requestJsonAsyncFailsWithUncheckedIOException() throws Exception {
+        server.json("/bad", "{not json");
+
+        try {
+            service.requestJsonAsync(new HttpGet(server.uri("/bad"))).get();
+            fail("expected failure");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof UncheckedIOException);
+        }
+    }
+
+    @Test
+    public void getJsonAllReturnsResultsInOrder() {
+        server.json("/a", "{\"id\":\"a\"}").json("/b", "{\"id\":\"b\"}").json("/c", "{\"id\":\"c\"}")
+                .json("/bad", "{not json");
+        List<URI> uris = ImmutableList.of(server.uri("/a"), server.uri("/bad"), server.uri("/b"), server.uri("/c"));
+
+        List<BatchResult<Map<String,Object>>> results = service.getJsonAll(uris, ImmutableMap.of(),
+                ImmutableList.of(), 2);
+
+        assertEquals(4, results.size());
+        assertEquals("a", results.get(0).getValue().get("id"));
+        assertEquals("b", results.get(2).getValue().get("id"));
+        assertEquals("c", results.get(3).getValue().get("id"));
+        assertFalse(results.get(1).isSuccess());
+        assertTrue(results.get(1).getError() instanceof UncheckedIOException);
+        assertEquals(uris.get(1), results.get(1).getUri());
+    }
+
+    @Test
+    public void getJsonAllLimitsParallelism() {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        server.handle("/slow", (exchange, body) -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            running.decrementAndGet();
+            LocalHttpServer.respond(exchange, 200, "{}");
+        });
+        List<URI> uris = Collections.nCopies(8, server.uri("/slow"));
+
+        List<BatchResult<Map<String,Object>>> results = service.getJsonAll(uris, ImmutableMap.of(),
+                ImmutableList.of(), 3);
+
+        assertEquals(8, results.size());
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getJsonAllRequiresPositiveParallelism() {
+        service.getJsonAll(ImmutableList.of(server.uri("/a")), ImmutableMap.of(), ImmutableList.of(), 0);
+    }
+
+    @Test
+    public void postJsonRecordsRequestBytes() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        HttpService instrumented = new HttpService(new HttpClientConfig(), new ObjectMapper(), metrics);
+        server.json("/echo", "{}");
+        try {
+            instrumented.postJson(server.uri("/echo"), ImmutableMap.of("name", "gear"), ImmutableList.of());
+            instrumented.postJsonAsync(server.uri("/echo"), ImmutableMap.of("name", "cog!"), ImmutableList.of()).get();
+        } finally {
+            instrumented.stop();
+        }
+
+        String host = "127.0.0.1:" + server.uri("/").getPort();
+        Histogram requestBytes = metrics.histogram("http.default.host." + host + ".requestBytes");
+        assertEquals(2, requestBytes.getCount());
+        assertArrayEquals(new long[] { 15, 15 }, requestBytes.getSnapshot().getValues());
+    }
+
+    @Test
+    public void fetchFileParallelRetries() throws Exception {
+        HttpClientConfig config = new HttpClientConfig();
+        config.getRetry().setMaxRetries(2);
+        config.getRetry().setBaseDelay(Duration.milliseconds(1));
+        HttpService retrying = new HttpService(config, new ObjectMapper(), null);
+        AtomicInteger attempts = new AtomicInteger();
+        server.handle("/file", (exchange, body) -> {
+            if (attempts.incrementAndGet() == 1) {
+                LocalHttpServer.respond(exchange, 503, "");
+            } else {
+                LocalHttpServer.respond(exchange, 200, "contents");
+            }
+        });
+        File file = File.createTempFile("fetch", ".txt");
+        try {
+            FetchResult result = retrying.fetchFileParallel(server.uri("/file"), file, 2);
+
+            assertEquals(8, result.getBytes());
+            assertEquals("contents", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+            assertEquals(2, attempts.get());
+        } finally {
+            retrying.stop();
+            file.delete();
+        }
+    }
+
+    @Test
+    public void toJsonEntityIsStringEntity() throws Exception {
+        StringEntity entity = service.toJsonEntity(ImmutableMap.of("name", "gear"));
+
+        assertEquals("{\"name\":\"gear\"}", EntityUtils.toString(entity));
+    }
+}
@@ -0,0 +1,121 @@
+package io.stardog.starwizard.services.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+/**
+ * A throwaway HTTP server on a local ephemeral port for exercising HttpService against real sockets. Each path is
+ * served by a handler, and every request is recorded for assertions.
+ */
+class LocalHttpServer implements AutoCloseable {
+    interface Handler {
+        void handle(HttpExchange exchange, byte[] body) throws IOException;
+    }
+
+    static class Request {
+        final String method;
+        final URI uri;
+        final Map<String,List<String>> headers;
+        final byte[] body;
+
+        Request(String method, URI uri, Map<String,List<String>> headers, byte[] body) {
+            this.method = method;
+            this.uri = uri;
+            this.headers = headers;
+            this.body = body;
+        }
+
+        String getHeader(String name) {
+            List<String> values = headers.get(name);
+            return values != null && !values.isEmpty() ? values.get(0) : null;
+        }
+    }
+
+    private final HttpServer server;
+    private final Map<String,Handler> handlers = new ConcurrentHashMap<>();
+    private final List<Request> requests = new CopyOnWriteArrayList<>();
+
+    LocalHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            try {
+                byte[] body = readAll(exchange.getRequestBody());
+                requests.add(new Request(exchange.getRequestMethod(), exchange.getRequestURI(),
+                        exchange.getRequestHeaders(), body));
+                Handler handler = handlers.get(exchange.getRequestURI().getPath());
+                if (handler == null) {
+                    respond(exchange, 404, "");
+                } else {
+                    handler.handle(exchange, body);
+                }
+            } finally {
+                exchange.close();
+            }
+        });
+        server.start();
+    }
+
+    LocalHttpServer handle(String path, Handler handler) {
+        handlers.put(path, handler);
+        return this;
+    }
+
+    LocalHttpServer json(String path, String json) {
+        return handle(path, (exchange, body) -> respond(exchange, 200, json));
+    }
+
+    URI uri(String path) {
+        return URI.create("http://127.0.0.1:" + server.getAddress().getPort() + path);
+    }
+
+    List<Request> getRequests() {
+        return requests;
+    }
+
+    static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        respond(exchange, status, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        if (!exchange.getResponseHeaders().containsKey("Content-Type")) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+        }
+        if (body.length == 0 || "HEAD".equals(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
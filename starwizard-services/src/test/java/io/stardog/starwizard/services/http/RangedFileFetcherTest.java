@@ -0,0 +1,159 @@
+package io.stardog.starwizard.services.http;
+
+import com.sun.net.httpserver.HttpExchange;
+import io.stardog.starwizard.services.http.data.FetchResult;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.message.BasicHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RangedFileFetcherTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LocalHttpServer server;
+    private byte[] content;
+    private volatile String etag = "\"v1\"";
+
+    @Before
+    public void setUp() throws Exception {
+        content = new byte[10_000];
+        new Random(7).nextBytes(content);
+        server = new LocalHttpServer()
+                .handle("/ranged", this::serveRange)
+                .handle("/whole", (exchange, body) -> LocalHttpServer.respond(exchange, 200, content))
+                .handle("/nohead", (exchange, body) -> {
+                    if ("HEAD".equals(exchange.getRequestMethod())) {
+                        LocalHttpServer.respond(exchange, 403, "");
+                    } else {
+                        serveRange(exchange, body);
+                    }
+                });
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    private void serveRange(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (range == null || (ifRange != null && !ifRange.equals(etag))) {
+            LocalHttpServer.respond(exchange, 200, content);
+            return;
+        }
+        String[] bounds = range.substring("bytes=".length()).split("-");
+        int from = Integer.parseInt(bounds[0]);
+        int to = Math.min(Integer.parseInt(bounds[1]), content.length - 1);
+        exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + content.length);
+        LocalHttpServer.respond(exchange, 206, Arrays.copyOfRange(content, from, to + 1));
+    }
+
+    private RangedFileFetcher fetcher() {
+        return new RangedFileFetcher(HttpClients.createDefault()::execute, 3, 1000);
+    }
+
+    private long rangeRequests() {
+        return server.getRequests().stream().filter(r -> r.getHeader("Range") != null).count();
+    }
+
+    @Test
+    public void fetchInRanges() throws Exception {
+        File file = new File(folder.getRoot(), "out.bin");
+
+        FetchResult result = fetcher().fetch(server.uri("/ranged"), file);
+
+        assertTrue(result.isRanged());
+        assertEquals(content.length, result.getBytes());
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(11, rangeRequests());
+        assertFalse(new File(file.getPath() + ".part").exists());
+        assertFalse(new File(file.getPath() + ".progress").exists());
+    }
+
+    @Test
+    public void fetchProbesWithGetNotHead() throws Exception {
+        File file = new File(folder.getRoot(), "out.bin");
+
+        fetcher().fetch(server.uri("/nohead"), file);
+
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertTrue(server.getRequests().stream().noneMatch(r -> r.method.equals("HEAD")));
+    }
+
+    @Test
+    public void fetchResumesMissingChunks() throws Exception {
+        File file = new File(folder.getRoot(), "out.bin");
+        File part = new File(file.getPath() + ".part");
+        byte[] partial = new byte[content.length];
+        System.arraycopy(content, 0, partial, 0, 4000);
+        Files.write(part.toPath(), partial);
+        Files.write(new File(file.getPath() + ".progress").toPath(),
+                ("10000 1000 \"v1\"\n0\n1\n2\n3\n").getBytes(StandardCharsets.UTF_8));
+
+        FetchResult result = fetcher().fetch(server.uri("/ranged"), file);
+
+        assertEquals(6000, result.getBytesTransferred());
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(7, rangeRequests());
+    }
+
+    @Test
+    public void fetchRestartsWhenValidatorChanges() throws Exception {
+        File file = new File(folder.getRoot(), "out.bin");
+        Files.write(new File(file.getPath() + ".part").toPath(), new byte[content.length]);
+        Files.write(new File(file.getPath() + ".progress").toPath(),
+                ("10000 1000 \"v0\"\n0\n1\n2\n3\n").getBytes(StandardCharsets.UTF_8));
+
+        FetchResult result = fetcher().fetch(server.uri("/ranged"), file);
+
+        assertEquals(content.length, result.getBytesTransferred());
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void fetchWholeWhenRangesIgnored() throws Exception {
+        File file = new File(folder.getRoot(), "out.bin");
+
+        FetchResult result = fetcher().fetch(server.uri("/whole"), file);
+
+        assertFalse(result.isRanged());
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertEquals(1, server.getRequests().size());
+        assertFalse(new File(file.getPath() + ".part").exists());
+    }
+
+    @Test
+    public void fetchFailsOnError() throws Exception {
+        File file = new File(folder.getRoot(), "out.bin");
+
+        try {
+            fetcher().fetch(server.uri("/missing"), file);
+            fail("expected failure");
+        } catch (IOException e) {
+            assertFalse(file.exists());
+        }
+    }
+
+    @Test
+    public void parseTotalLength() {
+        assertEquals(1234, RangedFileFetcher.parseTotalLength(new BasicHeader("Content-Range", "bytes 0-0/1234")));
+        assertEquals(-1, RangedFileFetcher.parseTotalLength(new BasicHeader("Content-Range", "bytes 0-0/*")));
+        assertEquals(-1, RangedFileFetcher.parseTotalLength(null));
+    }
+}
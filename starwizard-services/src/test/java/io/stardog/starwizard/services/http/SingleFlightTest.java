@@ -0,0 +1,118 @@
+package io.stardog.starwizard.services.http;
+
+import com.codahale.metrics.Counter;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SingleFlightTest {
+    @Test
+    public void coalescesConcurrentCalls() throws Exception {
+        SingleFlight<String,Integer> flight = new SingleFlight<>();
+        AtomicInteger executions = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(5);
+        try {
+            List<Future<Integer>> results = new ArrayList<>();
+            results.add(pool.submit(() -> flight.execute("key", () -> {
+                started.countDown();
+                awaitQuietly(release);
+                return executions.incrementAndGet();
+            })));
+            started.await(5, TimeUnit.SECONDS);
+            for (int i = 0; i < 4; i++) {
+                results.add(pool.submit(() -> flight.execute("key", executions::incrementAndGet)));
+            }
+            while (flight.getCoalescedCount() < 4) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            for (Future<Integer> f : results) {
+                assertEquals(Integer.valueOf(1), f.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, executions.get());
+            assertEquals(4, flight.getCoalescedCount());
+
+            // once released, the next call executes again
+            assertEquals(Integer.valueOf(2), flight.execute("key", executions::incrementAndGet));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void propagatesExceptions() {
+        SingleFlight<String,Integer> flight = new SingleFlight<>();
+        try {
+            flight.execute("key", () -> {
+                throw new IllegalStateException("upstream failed");
+            });
+            fail("Expected exception");
+        } catch (IllegalStateException e) {
+            assertEquals("upstream failed", e.getMessage());
+        }
+    }
+
+    @Test
+    public void waitersReceiveCopies() throws Exception {
+        SingleFlight<String,List<Integer>> flight = new SingleFlight<>(new Counter(), ArrayList::new);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<List<Integer>> first = pool.submit(() -> flight.execute("key", () -> {
+                started.countDown();
+                awaitQuietly(release);
+                return new ArrayList<>(Arrays.asList(1, 2));
+            }));
+            started.await(5, TimeUnit.SECONDS);
+            Future<List<Integer>> second = pool.submit(() -> flight.execute("key", ArrayList::new));
+            while (flight.getCoalescedCount() < 1) {
+                Thread.sleep(5);
+            }
+            release.countDown();
+
+            List<Integer> firstResult = first.get(5, TimeUnit.SECONDS);
+            firstResult.add(3);
+            assertEquals(Arrays.asList(1, 2), second.get(5, TimeUnit.SECONDS));
+            assertNotSame(firstResult, second.get());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void copiesOnlyWhenCallersWaited() {
+        AtomicInteger copies = new AtomicInteger();
+        SingleFlight<String,List<Integer>> flight = new SingleFlight<>(new Counter(), list -> {
+            copies.incrementAndGet();
+            return new ArrayList<>(list);
+        });
+        List<Integer> result = new ArrayList<>(Arrays.asList(1, 2));
+
+        assertSame(result, flight.execute("key", () -> result));
+        assertEquals(0, copies.get());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
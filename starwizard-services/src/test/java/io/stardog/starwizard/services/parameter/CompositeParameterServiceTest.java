@@ -0,0 +1,88 @@
+package io.stardog.starwizard.services.parameter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.*;
+
+public class CompositeParameterServiceTest {
+    @Test
+    public void fromEnv() {
+        MapParameterService env = MapParameterService.fromEnv("EXAMPLE_", ImmutableMap.of(
+                "EXAMPLE_STRIPE_API_KEY", "sk_test",
+                "OTHER_STRIPE_API_KEY", "sk_other",
+                "EXAMPLE_", "empty"));
+        assertEquals(ImmutableMap.of("stripe_api_key", "sk_test"), env.asMap());
+    }
+
+    @Test
+    public void fromEnvIgnoresCase() {
+        MapParameterService env = MapParameterService.fromEnv("EXAMPLE_", ImmutableMap.of(
+                "EXAMPLE_STRIPEAPIKEY", "sk_test",
+                "EXAMPLE_DB_PASSWORD", "secret"));
+        assertEquals(Optional.of("sk_test"), env.optParameter("stripeApiKey"));
+        assertEquals(Optional.of("secret"), env.optParameter("DB_Password"));
+        assertTrue(env.contains("STRIPEAPIKEY"));
+        assertEquals(ImmutableMap.of("stripeApiKey", "sk_test"), env.getParameters(ImmutableList.of("stripeApiKey")));
+    }
+
+    @Test
+    public void compositeKeepsEnvCaseInsensitive() {
+        CompositeParameterService service = new CompositeParameterService(ImmutableList.of(
+                MapParameterService.fromEnv("EXAMPLE_", ImmutableMap.of("EXAMPLE_STRIPEAPIKEY", "sk_env")),
+                new MapParameterService(ImmutableMap.of("stripeApiKey", "sk_file", "dbPassword", "file"))),
+                new MapParameterService(ImmutableMap.of("dbpassword", "ssm")));
+
+        assertEquals("sk_env", service.getParameter("stripeApiKey"));
+        assertEquals(ImmutableMap.of("stripeApiKey", "sk_env", "dbPassword", "file"),
+                service.getParameters(ImmutableList.of("stripeApiKey", "dbPassword")));
+        // only the env layer ignores case
+        assertEquals("ssm", service.getParameter("dbpassword"));
+    }
+
+    @Test
+    public void fromPropertiesAndJson() throws Exception {
+        File properties = File.createTempFile("params", ".properties");
+        File json = File.createTempFile("params", ".json");
+        try {
+            Files.write(properties.toPath(), "db_password=secret\n".getBytes(StandardCharsets.UTF_8));
+            Files.write(json.toPath(), "{\"db_password\":\"json-secret\"}".getBytes(StandardCharsets.UTF_8));
+            assertEquals("secret", MapParameterService.fromProperties(properties).getParameter("db_password"));
+            assertEquals("json-secret", MapParameterService.fromJson(json).getParameter("db_password"));
+        } finally {
+            properties.delete();
+            json.delete();
+        }
+    }
+
+    @Test
+    public void earlierLayersWin() {
+        CompositeParameterService service = new CompositeParameterService(ImmutableList.of(
+                new MapParameterService(ImmutableMap.of("a", "env")),
+                new MapParameterService(ImmutableMap.of("a", "file", "b", "file"))),
+                new MapParameterService(ImmutableMap.of("a", "ssm", "b", "ssm", "c", "ssm")));
+
+        assertEquals("env", service.getParameter("a"));
+        assertEquals("file", service.getParameter("b"));
+        assertEquals("ssm", service.getParameter("c"));
+        assertEquals(Optional.empty(), service.optParameter("d"));
+
+        Map<String,String> params = service.getParameters(ImmutableList.of("a", "b", "c", "d", "a"));
+        assertEquals(ImmutableMap.of("a", "env", "b", "file", "c", "ssm"), params);
+    }
+
+    @Test
+    public void noFallback() {
+        CompositeParameterService service = new CompositeParameterService(ImmutableList.of(
+                new MapParameterService(ImmutableMap.of("a", "env"))), null);
+        assertEquals(ImmutableMap.of("a", "env"), service.getParameters(ImmutableList.of("a", "b")));
+        assertFalse(service.optParameter("b").isPresent());
+    }
+}
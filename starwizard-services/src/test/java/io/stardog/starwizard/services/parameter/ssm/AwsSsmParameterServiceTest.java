@@ -0,0 +1,281 @@
+package io.stardog.starwizard.services.parameter.ssm;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.simplesystemsmanagement.AbstractAWSSimpleSystemsManagement;
+import com.amazonaws.services.simplesystemsmanagement.model.*;
+import com.codahale.metrics.MetricRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class AwsSsmParameterServiceTest {
+    private final static String PREFIX = "/test/app/";
+
+    private final FakeSsm ssm = new FakeSsm();
+    private AwsSsmParameterService service;
+
+    /**
+     * An in-memory SSM that serves parameters from a map and counts calls.
+     */
+    static class FakeSsm extends AbstractAWSSimpleSystemsManagement {
+        final Map<String,Parameter> parameters = new ConcurrentHashMap<>();
+        final AtomicInteger getParameterCalls = new AtomicInteger();
+        final List<Integer> batchSizes = new CopyOnWriteArrayList<>();
+        final AtomicInteger pathCalls = new AtomicInteger();
+        final AtomicInteger throttleNext = new AtomicInteger();
+        volatile long getParameterDelayMs;
+
+        void put(String name, String value) {
+            Parameter previous = parameters.get(PREFIX + name);
+            long version = previous != null ? previous.getVersion() + 1 : 1;
+            parameters.put(PREFIX + name, new Parameter().withName(PREFIX + name).withValue(value).withVersion(version));
+        }
+
+        @Override
+        public GetParameterResult getParameter(GetParameterRequest request) {
+            getParameterCalls.incrementAndGet();
+            if (getParameterDelayMs > 0) {
+                try {
+                    Thread.sleep(getParameterDelayMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Parameter p = parameters.get(request.getName());
+            if (p == null) {
+                throw new ParameterNotFoundException(request.getName());
+            }
+            return new GetParameterResult().withParameter(p);
+        }
+
+        @Override
+        public GetParametersResult getParameters(GetParametersRequest request) {
+            if (throttleNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+                e.setErrorCode("ThrottlingException");
+                throw e;
+            }
+            batchSizes.add(request.getNames().size());
+            return new GetParametersResult()
+                    .withParameters(request.getNames().stream()
+                            .filter(parameters::containsKey)
+                            .map(parameters::get)
+                            .collect(Collectors.toList()))
+                    .withInvalidParameters(request.getNames().stream()
+                            .filter(name -> !parameters.containsKey(name))
+                            .collect(Collectors.toList()));
+        }
+
+        @Override
+        public GetParametersByPathResult getParametersByPath(GetParametersByPathRequest request) {
+            pathCalls.incrementAndGet();
+            if (throttleNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+                e.setErrorCode("ThrottlingException");
+                throw e;
+            }
+            List<Parameter> matching = parameters.values().stream()
+                    .filter(p -> p.getName().startsWith(request.getPath() + "/"))
+                    .sorted(Comparator.comparing(Parameter::getName))
+                    .collect(Collectors.toList());
+            int from = request.getNextToken() != null ? Integer.parseInt(request.getNextToken()) : 0;
+            int to = Math.min(matching.size(), from + 3);
+            return new GetParametersByPathResult()
+                    .withParameters(matching.subList(from, to))
+                    .withNextToken(to < matching.size() ? String.valueOf(to) : null);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (service != null) {
+            service.stop();
+        }
+    }
+
+    private AwsSsmParameterService service(Duration refreshInterval, Duration watchInterval) {
+        service = new AwsSsmParameterService(ssm, PREFIX, null, false, refreshInterval, Duration.ofHours(1),
+                watchInterval, 2, null);
+        return service;
+    }
+
+    @Test
+    public void getCachedParameterRefreshesAhead() throws Exception {
+        ssm.put("api_key", "v1");
+        service(Duration.ofMillis(50), Duration.ofHours(1));
+        assertEquals("v1", service.getCachedParameter("api_key"));
+
+        ssm.put("api_key", "v2");
+        ssm.getParameterDelayMs = 100;
+        Thread.sleep(80);
+        // the stale value is served while the reload runs in the background
+        assertEquals("v1", service.getCachedParameter("api_key"));
+        long deadline = System.currentTimeMillis() + 2000;
+        while (!"v2".equals(service.getCachedParameter("api_key")) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertEquals("v2", service.getCachedParameter("api_key"));
+        assertEquals(1, service.getRefreshCount());
+        assertEquals(0, service.getRefreshFailureCount());
+    }
+
+    @Test
+    public void getCachedParameterServesLastKnownValueWhenRefreshFails() throws Exception {
+        ssm.put("api_key", "v1");
+        service(Duration.ofMillis(20), Duration.ofHours(1));
+        assertEquals("v1", service.getCachedParameter("api_key"));
+
+        ssm.parameters.clear();
+        Thread.sleep(40);
+        service.getCachedParameter("api_key");
+        long deadline = System.currentTimeMillis() + 2000;
+        while (service.getRefreshFailureCount() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+
+        assertEquals(1, service.getRefreshFailureCount());
+        assertEquals("v1", service.getCachedParameter("api_key"));
+    }
+
+    @Test
+    public void servicesCanShareMetricRegistry() throws Exception {
+        MetricRegistry metrics = new MetricRegistry();
+        ssm.put("api_key", "v1");
+        AwsSsmParameterService first = new AwsSsmParameterService(ssm, PREFIX, null, false, Duration.ofMinutes(5),
+                Duration.ofHours(1), Duration.ofHours(1), 2, metrics);
+        AwsSsmParameterService second = new AwsSsmParameterService(ssm, PREFIX, null, false, Duration.ofMinutes(5),
+                Duration.ofHours(1), Duration.ofHours(1), 2, metrics);
+        try {
+            first.getCachedParameter("api_key");
+            first.getCachedParameter("api_key");
+
+            String hits = MetricRegistry.name(AwsSsmParameterService.class, "cache", "hits");
+            assertEquals(1L, metrics.getGauges().get(hits).getValue());
+        } finally {
+            first.stop();
+            second.stop();
+        }
+    }
+
+    @Test
+    public void warmUpLoadsPathAndBacksOffWhenThrottled() {
+        for (int i = 0; i < 7; i++) {
+            ssm.put("param_" + i, "value_" + i);
+        }
+        ssm.parameters.put("/other/param", new Parameter().withName("/other/param").withValue("other").withVersion(1L));
+        ssm.throttleNext.set(1);
+        service(Duration.ofMinutes(5), Duration.ofHours(1));
+
+        assertEquals(7, service.warmUp());
+        assertEquals(4, ssm.pathCalls.get());
+        assertEquals(1, service.getThrottleCount());
+        assertEquals("value_3", service.getCachedParameter("param_3"));
+        assertEquals(0, ssm.getParameterCalls.get());
+    }
+
+    @Test
+    public void getParametersFetchesInBatches() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            names.add("param_" + i);
+            if (i < 23) {
+                ssm.put("param_" + i, "value_" + i);
+            }
+        }
+        service(Duration.ofMinutes(5), Duration.ofHours(1));
+
+        Map<String,String> values = service.getParameters(names);
+
+        assertEquals(23, values.size());
+        assertEquals("value_22", values.get("param_22"));
+        assertFalse(values.containsKey("param_24"));
+        assertEquals(3, ssm.batchSizes.size());
+        assertTrue(ssm.batchSizes.stream().allMatch(size -> size <= 10));
+        assertEquals(25, ssm.batchSizes.stream().mapToInt(Integer::intValue).sum());
+
+        // cached parameters are not requested again
+        assertEquals(values, service.getParameters(names.subList(0, 23)));
+        assertEquals(3, ssm.batchSizes.size());
+    }
+
+    @Test
+    public void getParametersRetriesThrottledBatches() {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            names.add("param_" + i);
+            ssm.put("param_" + i, "value_" + i);
+        }
+        ssm.throttleNext.set(2);
+        service(Duration.ofMinutes(5), Duration.ofHours(1));
+
+        Map<String,String> values = service.getParameters(names);
+
+        assertEquals(30, values.size());
+        assertEquals(2, service.getThrottleCount());
+        assertEquals(3, ssm.batchSizes.size());
+    }
+
+    @Test
+    public void watchNotifiesOncePerChangeOnPollerThread() throws Exception {
+        ssm.put("api_key", "v1");
+        service(Duration.ofMillis(20), Duration.ofMillis(20));
+        assertEquals("v1", service.getCachedParameter("api_key"));
+
+        List<String> values = new CopyOnWriteArrayList<>();
+        List<String> threads = new CopyOnWriteArrayList<>();
+        service.watch("api_key", value -> {
+            values.add(value);
+            threads.add(Thread.currentThread().getName());
+        });
+        Thread.sleep(100);
+        assertTrue(values.isEmpty());
+
+        ssm.put("api_key", "v2");
+        // keep reading, so that background refreshes race the poller to see the change
+        long deadline = System.currentTimeMillis() + 1000;
+        while (System.currentTimeMillis() < deadline) {
+            service.getCachedParameter("api_key");
+            Thread.sleep(5);
+        }
+
+        assertEquals("v2", service.getCachedParameter("api_key"));
+        assertEquals(1, values.size());
+        assertEquals("v2", values.get(0));
+        assertTrue(threads.get(0).startsWith("ssm-watch-"));
+    }
+
+    @Test
+    public void refreshFinishingAfterStopIsNotAFailure() throws Exception {
+        ssm.put("api_key", "v1");
+        service(Duration.ofMillis(20), Duration.ofHours(1));
+        service.watch("api_key", value -> { });
+        assertEquals("v1", service.getCachedParameter("api_key"));
+
+        ssm.put("api_key", "v2");
+        ssm.getParameterDelayMs = 100;
+        Thread.sleep(40);
+        service.getCachedParameter("api_key");
+        long deadline = System.currentTimeMillis() + 2000;
+        while (ssm.getParameterCalls.get() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        // stop while the refresh is still waiting on SSM, so its change arrives after the poller has shut down
+        service.stop();
+        Thread.sleep(200);
+
+        assertEquals(1, service.getRefreshCount());
+        assertEquals(0, service.getRefreshFailureCount());
+    }
+}
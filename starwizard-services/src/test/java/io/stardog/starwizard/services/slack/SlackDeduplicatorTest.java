@@ -0,0 +1,61 @@
+package io.stardog.starwizard.services.slack;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SlackDeduplicatorTest {
+    @Test
+    public void fingerprint() {
+        assertEquals("Order <n> failed", SlackDeduplicator.fingerprint("Order 1234 failed"));
+        assertEquals("User <hex> not found", SlackDeduplicator.fingerprint("User 5f2b8c1e9a3d4e0012ab34cd not found"));
+        assertEquals("Job <uuid> timed out after <n>ms",
+                SlackDeduplicator.fingerprint("Job 123e4567-e89b-12d3-a456-426614174000 timed out after 3000ms"));
+        assertEquals("Charge failed for <id>", SlackDeduplicator.fingerprint("Charge failed for cus_8fJ2kQ9x"));
+    }
+
+    @Test
+    public void suppressesRepeatsAndRollsUp() {
+        List<String> sent = new ArrayList<>();
+        SlackDeduplicator dedup = new SlackDeduplicator(sent::add, Duration.ofMinutes(10), Duration.ofSeconds(60), 100, null);
+
+        dedup.send("Order 1 failed");
+        dedup.send("Order 2 failed");
+        dedup.send("Order 3 failed");
+        dedup.send("Disk full");
+        assertEquals(ImmutableList.of("Order 1 failed", "Disk full"), sent);
+        assertEquals(2, dedup.getSuppressedCount());
+
+        dedup.flush();
+        assertEquals("Order 1 failed (x 2 more in last 60s)", sent.get(2));
+        assertEquals(3, sent.size());
+
+        // nothing new to report
+        dedup.flush();
+        assertEquals(3, sent.size());
+
+        // still inside the window
+        dedup.send("Order 4 failed");
+        assertEquals(3, sent.size());
+    }
+
+    @Test
+    public void evictedCountsWaitForRollup() {
+        List<String> sent = new ArrayList<>();
+        SlackDeduplicator dedup = new SlackDeduplicator(sent::add, Duration.ofMinutes(10), Duration.ofSeconds(60), 1, null);
+
+        dedup.send("Order 1 failed");
+        dedup.send("Order 2 failed");
+        // evicts the order fingerprint, but its count isn't sent from this thread
+        dedup.send("Disk full");
+        assertEquals(ImmutableList.of("Order 1 failed", "Disk full"), sent);
+
+        dedup.flush();
+        assertEquals(ImmutableList.of("Order 1 failed", "Disk full", "Order 1 failed (x 1 more in last 60s)"), sent);
+    }
+}
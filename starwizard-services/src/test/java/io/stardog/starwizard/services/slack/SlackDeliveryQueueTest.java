@@ -0,0 +1,134 @@
+package io.stardog.starwizard.services.slack;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.stardog.starwizard.services.slack.data.SlackMessage;
+import io.stardog.starwizard.services.slack.data.SlackWebhook;
+import org.apache.http.client.HttpClient;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+
+public class SlackDeliveryQueueTest {
+    private static SlackMessage message(String webhookUrl, String text) {
+        return SlackMessage.of(SlackWebhook.of(webhookUrl, "#alerts", "bot", null), text);
+    }
+
+    @Test
+    public void coalesce() {
+        List<SlackMessage> messages = SlackDeliveryQueue.coalesce(ImmutableList.of(
+                message("https://hooks.slack.com/a", "one"),
+                message("https://hooks.slack.com/b", "other"),
+                message("https://hooks.slack.com/a", "two"),
+                message("https://hooks.slack.com/a", "three")), 20);
+
+        assertEquals(2, messages.size());
+        assertEquals("one", messages.get(0).getText());
+        assertEquals(ImmutableList.of(ImmutableMap.of("text", "two"), ImmutableMap.of("text", "three")),
+                messages.get(0).getAttachments());
+        assertEquals("other", messages.get(1).getText());
+        assertNull(messages.get(1).getAttachments());
+    }
+
+    @Test
+    public void coalesceRespectsMaximum() {
+        List<SlackMessage> messages = SlackDeliveryQueue.coalesce(ImmutableList.of(
+                message("https://hooks.slack.com/a", "one"),
+                message("https://hooks.slack.com/a", "two"),
+                message("https://hooks.slack.com/a", "three")), 2);
+
+        assertEquals(2, messages.size());
+        assertEquals(1, messages.get(0).getAttachments().size());
+        assertEquals("three", messages.get(1).getText());
+    }
+
+    @Test
+    public void tokenBucket() {
+        TokenBucket bucket = new TokenBucket(1.0, 2, 0);
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(0, bucket.tryAcquire(0));
+        assertEquals(1000, bucket.tryAcquire(0));
+        assertEquals(500, bucket.tryAcquire(500));
+        assertEquals(0, bucket.tryAcquire(1000));
+
+        bucket.pauseUntil(5000);
+        assertEquals(3000, bucket.tryAcquire(2000));
+        assertEquals(1000, bucket.tryAcquire(5000));
+        assertEquals(0, bucket.tryAcquire(6000));
+    }
+
+    @Test
+    public void disabledSlackSkipsRateLimit() throws Exception {
+        SlackService disabled = new SlackService("https://hooks.slack.com/a", "bot", "#alerts", null, false, false,
+                null, (HttpClient)null, null);
+        SlackDeliveryQueue queue = new SlackDeliveryQueue(disabled, 100, 1.0, 1, Duration.ofSeconds(5), null);
+        for (int i = 0; i < 45; i++) {
+            queue.send(message("https://hooks.slack.com/a", "message " + i));
+        }
+
+        long start = System.currentTimeMillis();
+        queue.start();
+        queue.stop();
+
+        // coalesced into three messages, which the limiter would have spread over two seconds
+        assertTrue(System.currentTimeMillis() - start < 1000);
+        assertEquals(0, queue.getQueueSize());
+    }
+
+    @Test
+    public void sendAfterStopIsDropped() throws Exception {
+        SlackService disabled = new SlackService("https://hooks.slack.com/a", "bot", "#alerts", null, false, false,
+                null, (HttpClient)null, null);
+        SlackDeliveryQueue queue = new SlackDeliveryQueue(disabled, 100, 1.0, 1, Duration.ofSeconds(5), null);
+        queue.start();
+        queue.stop();
+
+        queue.send(message("https://hooks.slack.com/a", "late"));
+
+        assertEquals(0, queue.getQueueSize());
+        assertEquals(1, queue.getDropCount());
+    }
+
+    @Test
+    public void throttledWebhookDoesNotDelayOthers() throws Exception {
+        List<String> attempts = new CopyOnWriteArrayList<>();
+        SlackService slack = new SlackService("https://hooks.slack.com/a", "bot", "#alerts", null, true, false,
+                null, (HttpClient)null, null) {
+            @Override
+            DeliveryResult deliver(SlackMessage message) {
+                attempts.add(message.getText());
+                // webhook a is told to back off for a minute
+                return message.getWebhook().getUrl().endsWith("/a")
+                        ? new DeliveryResult(429, 60 * 1000)
+                        : new DeliveryResult(200, 0);
+            }
+        };
+        SlackDeliveryQueue queue = new SlackDeliveryQueue(slack, 100, 100.0, 10, Duration.ofMillis(200), null);
+        queue.start();
+        try {
+            queue.send(message("https://hooks.slack.com/a", "throttled"));
+            long deadline = System.currentTimeMillis() + 2000;
+            while (attempts.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+
+            long start = System.currentTimeMillis();
+            queue.send(message("https://hooks.slack.com/b", "prompt"));
+            while (!attempts.contains("prompt") && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+
+            assertTrue(attempts.contains("prompt"));
+            assertTrue(System.currentTimeMillis() - start < 1000);
+            assertEquals(1, attempts.stream().filter("throttled"::equals).count());
+            // the throttled message is still held for its retry
+            assertEquals(1, queue.getQueueSize());
+        } finally {
+            queue.stop();
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package io.stardog.starwizard.services.slack;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import io.stardog.starwizard.services.slack.data.SlackMessage;
+import io.stardog.starwizard.services.slack.data.SlackWebhook;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SlackPayloadEntityTest {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private Map<String,Object> write(SlackMessage message) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new SlackPayloadEntity(SlackPayloadEntity.encodePrefix(message.getWebhook()), message).writeTo(out);
+        return MAPPER.readValue(out.toByteArray(), new TypeReference<Map<String,Object>>() {});
+    }
+
+    @Test
+    public void writesPayload() throws Exception {
+        SlackWebhook webhook = SlackWebhook.of("https://hooks.slack.com/x", "#alerts", "bot", "https://example.com/i.png");
+        String text = "quote \" backslash \\ newline \n tab \t bell \u0007 accent \u00e9 euro \u20ac emoji \ud83d\ude00";
+
+        Map<String,Object> payload = write(SlackMessage.of(webhook, text));
+        assertEquals(ImmutableMap.of(
+                "username", "bot",
+                "channel", "#alerts",
+                "icon_url", "https://example.com/i.png",
+                "text", text), payload);
+    }
+
+    @Test
+    public void writesAttachmentsAndNulls() throws Exception {
+        SlackWebhook webhook = SlackWebhook.of("https://hooks.slack.com/x", null, null, null);
+        SlackMessage message = SlackMessage.builder()
+                .webhook(webhook)
+                .attachments(ImmutableList.of(ImmutableMap.of("text", "detail")))
+                .build();
+
+        Map<String,Object> payload = write(message);
+        assertTrue(payload.containsKey("username"));
+        assertNull(payload.get("username"));
+        assertNull(payload.get("text"));
+        assertFalse(payload.containsKey("channel"));
+        assertEquals(ImmutableList.of(ImmutableMap.of("text", "detail")), payload.get("attachments"));
+    }
+}